@@ -0,0 +1,173 @@
+package pippin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ahead-of-time compilation of executables. The class generated by JitCompiler
+ * for an executable is stored in a cache directory, named by the SHA-256 hash of
+ * the contents of the executable and the compiler version. Besides the program,
+ * the stored class carries the data section of the executable, packed into
+ * string constants and wherever it is in the address space, so a program that
+ * was compiled before, even by another JVM, is loaded and run without parsing the
+ * text of the executable with Loader.load.
+ */
+public class AotCache {
+	private File directory;
+	// constructors of the classes already defined by this JVM, by file name
+	private Map<String, MethodHandle> defined = new HashMap<>();
+
+	/**
+	 * Creates a cache that stores its classes in the directory, which is created
+	 * if it does not exist
+	 * @param directory the cache directory
+	 */
+	public AotCache(File directory) {
+		if(directory == null) throw new IllegalArgumentException("Coding error: the directory is null");
+		this.directory = directory;
+	}
+
+	/**
+	 * Loads an executable into a cleared model and returns the engine that runs it.
+	 * If the executable was compiled before, the program and data come from the
+	 * stored class. Otherwise the executable is read, compiled and stored for the
+	 * next time.
+	 * @param model the cleared model to load
+	 * @param executable the pexe file
+	 * @return the compiled engine for the program, bound to the model
+	 * @throws IOException if the executable cannot be read or the class cannot
+	 * be stored
+	 * @throws IllegalArgumentException if the executable has errors, with the
+	 * message returned by Loader.load, or its data does not fit in the memory
+	 * of the model
+	 * @throws IllegalStateException if the program or data is too large to compile
+	 */
+	public CompiledProgram load(MachineModel model, File executable) throws IOException {
+		if(model == null) throw new IllegalArgumentException("Coding error: the model is null");
+		String name = className(Files.readAllBytes(executable.toPath()));
+		MethodHandle constructor = constructor(name);
+		if(constructor == null) {
+			byte[] classFile = generate(executable);
+			store(name, classFile);
+			constructor = define(name, classFile);
+		}
+		CompiledProgram program = instantiate(constructor, model);
+		try {
+			program.load(model);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Array Index " + e.getMessage());
+		}
+		return program;
+	}
+
+	/**
+	 * Compiles an executable into the cache if it is not there already
+	 * @param executable the pexe file
+	 * @return the stored class file
+	 * @throws IOException if the executable cannot be read or the class cannot
+	 * be stored
+	 * @throws IllegalArgumentException if the executable has errors
+	 * @throws IllegalStateException if the program or data is too large to compile
+	 */
+	public File compile(File executable) throws IOException {
+		String name = className(Files.readAllBytes(executable.toPath()));
+		File classFile = new File(directory, name);
+		if(!classFile.exists()) {
+			store(name, generate(executable));
+		}
+		return classFile;
+	}
+
+	// The executable is loaded into a memory of the whole 32-bit address space,
+	// so the class carries every cell it sets whatever memory it is loaded into
+	private static byte[] generate(File executable) {
+		SparseBackend data = new SparseBackend();
+		MachineModel model = new MachineModel(true, new Memory(data));
+		String result = Loader.load(model, executable);
+		if(!"success".equals(result)) {
+			throw new IllegalArgumentException(result);
+		}
+		return JitCompiler.generate(model.getCode(), data, model.getChangedIndex());
+	}
+
+	private CompiledProgram instantiate(MethodHandle constructor, MachineModel model) {
+		try {
+			CompiledProgram program = (CompiledProgram)constructor.invoke();
+			program.setModel(model);
+			return program;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Unable to create the compiled program", e);
+		}
+	}
+
+	// Returns null if the class is neither defined nor stored
+	private synchronized MethodHandle constructor(String name) throws IOException {
+		MethodHandle constructor = defined.get(name);
+		if(constructor == null) {
+			File classFile = new File(directory, name);
+			if(classFile.exists()) {
+				constructor = JitCompiler.define(Files.readAllBytes(classFile.toPath()));
+				defined.put(name, constructor);
+			}
+		}
+		return constructor;
+	}
+
+	private synchronized MethodHandle define(String name, byte[] classFile) {
+		MethodHandle constructor = JitCompiler.define(classFile);
+		defined.put(name, constructor);
+		return constructor;
+	}
+
+	// The class is written to a temporary file first, so that a JVM reading
+	// the cache at the same time never sees a partly written class
+	private void store(String name, byte[] classFile) throws IOException {
+		Files.createDirectories(directory.toPath());
+		Path temp = Files.createTempFile(directory.toPath(), name, ".tmp");
+		try {
+			Files.write(temp, classFile);
+			Files.move(temp, new File(directory, name).toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	static String className(byte[] executable) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(executable);
+			digest.update((byte)JitCompiler.VERSION);
+			StringBuilder builder = new StringBuilder();
+			for(byte b : digest.digest()) {
+				builder.append(String.format("%02x", b));
+			}
+			return builder.append(".class").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Compiles executables into a cache directory
+	 * @param args the cache directory followed by the pexe files to compile
+	 */
+	public static void main(String[] args) {
+		AotCache cache = new AotCache(new File(args.length > 0 ? args[0] : "aot"));
+		for(int i = 1; i < args.length; i++) {
+			try {
+				System.out.println(args[i] + " " + cache.compile(new File(args[i])).getName());
+			} catch (IOException | IllegalArgumentException e) {
+				System.out.println(args[i] + " " + e.getMessage());
+			}
+		}
+	}
+}
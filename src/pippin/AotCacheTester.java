@@ -0,0 +1,126 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class AotCacheTester {
+
+	private void delete(File directory) {
+		for(File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private void compareRun(File executable, File directory) throws IOException {
+		MachineModel expected = new MachineModel();
+		assertEquals("success", Loader.load(expected, executable));
+		int changed = expected.getChangedIndex();
+		assertEquals(HaltReason.HALT, expected.run(Long.MAX_VALUE).getReason());
+
+		MachineModel machine = new MachineModel();
+		CompiledProgram program = new AotCache(directory).load(machine, executable);
+		assertEquals(changed, machine.getChangedIndex());
+		assertEquals(HaltReason.HALT, program.run(Long.MAX_VALUE).getReason());
+		assertArrayEquals(expected.getData(), machine.getData());
+		assertEquals(expected.getAccumulator(), machine.getAccumulator());
+	}
+
+	@Test
+	// the second cache reads the class the first one stored, as another JVM would
+	public void testRoundTrip() throws IOException {
+		File directory = Files.createTempDirectory("pippin").toFile();
+		try {
+			File executable = new File("test/qsort.pexe");
+			compareRun(executable, directory);
+			File classFile = new AotCache(directory).compile(executable);
+			assertTrue(classFile.exists());
+			assertEquals(AotCache.className(Files.readAllBytes(executable.toPath())), classFile.getName());
+			compareRun(executable, directory);
+			compareRun(new File("test/merge.pexe"), directory);
+			compareRun(new File("test/merge.pexe"), directory);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	@Test
+	// the data past the first DATA_SIZE cells, at the top of the address space
+	// and in a run longer than one packed constant all come back
+	public void testSparseData() throws IOException {
+		File executable = File.createTempFile("pippin", ".pexe");
+		File directory = Files.createTempDirectory("pippin").toFile();
+		try {
+			try(PrintWriter out = new PrintWriter(executable)) {
+				out.println("2 10000000"); // LOD 10000000
+				out.println("b -10"); // ADD FFFFFFF0
+				out.println("4 0"); // STO 0
+				out.println("1f 0"); // HALT
+				out.println("-1");
+				for(int i = 0; i < 20000; i++) {
+					out.println(Integer.toHexString(0x200 + i) + " " + Integer.toHexString(i + 1));
+				}
+				out.println("-10 7");
+				out.println("10000000 5");
+			}
+			for(int pass = 0; pass < 2; pass++) {
+				AotCache cache = new AotCache(directory);
+				MachineModel machine = new MachineModel(true, new Memory(new SparseBackend()));
+				CompiledProgram program = cache.load(machine, executable);
+				assertEquals(0x10000000, machine.getChangedIndex());
+				for(int i = 0; i < 20000; i++) {
+					assertEquals(i + 1, machine.getData(0x200 + i));
+				}
+				assertEquals(7, machine.getData(-0x10));
+				assertEquals(HaltReason.HALT, program.run(Long.MAX_VALUE).getReason());
+				assertEquals(12, machine.getData(0));
+			}
+		} finally {
+			executable.delete();
+			delete(directory);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	// the stored data does not fit in the memory of this model
+	public void testDataOutsideMemory() throws IOException {
+		File executable = File.createTempFile("pippin", ".pexe");
+		File directory = Files.createTempDirectory("pippin").toFile();
+		try {
+			try(PrintWriter out = new PrintWriter(executable)) {
+				out.println("1f 0");
+				out.println("-1");
+				out.println("10000000 5");
+			}
+			new AotCache(directory).compile(executable);
+			new AotCache(directory).load(new MachineModel(), executable);
+		} finally {
+			executable.delete();
+			delete(directory);
+		}
+	}
+
+	@Test
+	// a class compiled without data loads only the program
+	public void testLoadProgramOnly() {
+		MachineModel image = new MachineModel();
+		assertEquals("success", Loader.load(image, new File("test/factorial8.pexe")));
+		CompiledProgram program = JitCompiler.compile(image);
+		MachineModel machine = new MachineModel();
+		program.load(machine);
+		assertEquals(image.getCode().getProgramSize(), machine.getCode().getProgramSize());
+		for(int i = 0; i < image.getCode().getProgramSize(); i++) {
+			assertEquals(image.getCode().getText(i), machine.getCode().getText(i));
+		}
+		assertEquals(0, machine.getData(0));
+		assertEquals(-1, machine.getChangedIndex());
+	}
+}
@@ -0,0 +1,129 @@
+package pippin;
+
+import java.util.Arrays;
+
+/**
+ * The default backend, which keeps the cells on the heap. Until the first fork
+ * the cells are one flat array, so a machine that never forks reads and writes
+ * them with a single index. A fork splits the cells into pages of PAGE_SIZE ints
+ * that the two backends share. A shared page is copied by the first set on it,
+ * by either side of the fork, so a fork costs an array of page references and
+ * each side only pays for the pages it writes.
+ */
+public class ArrayBackend implements MemoryBackend {
+	public final static int PAGE_SIZE = 64;
+	private final static int PAGE_SHIFT = 6;
+	private final static int PAGE_MASK = PAGE_SIZE - 1;
+	private final int size;
+	// the cells before the first fork, null once they are paged
+	private int[] cells;
+	private int[][] pages;
+	// true for the pages that another backend may still be reading
+	private boolean[] shared;
+
+	public ArrayBackend(int size) {
+		if(size <= 0) throw new IllegalArgumentException("Coding error: the size must be positive");
+		this.size = size;
+		cells = new int[size];
+	}
+
+	private ArrayBackend(ArrayBackend parent) {
+		size = parent.size;
+		if(parent.cells != null) parent.page();
+		pages = parent.pages.clone();
+		Arrays.fill(parent.shared, true);
+		shared = parent.shared.clone();
+	}
+
+	// Splits the flat cells into pages, which happens once, on the first fork
+	private void page() {
+		int count = (int)(((long)size + PAGE_MASK) >>> PAGE_SHIFT);
+		pages = new int[count][PAGE_SIZE];
+		shared = new boolean[count];
+		for(int i = 0; i < count; i++) {
+			int start = i << PAGE_SHIFT;
+			System.arraycopy(cells, start, pages[i], 0, Math.min(PAGE_SIZE, size - start));
+		}
+		cells = null;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int get(int index) {
+		if(cells != null) return cells[index];
+		return pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+	}
+
+	@Override
+	public void set(int index, int value) {
+		if(cells != null) {
+			cells[index] = value;
+			return;
+		}
+		int page = index >>> PAGE_SHIFT;
+		if(shared[page]) {
+			pages[page] = pages[page].clone();
+			shared[page] = false;
+		}
+		pages[page][index & PAGE_MASK] = value;
+	}
+
+	/**
+	 * Copies the values at once, or a page at a time after a fork
+	 */
+	@Override
+	public void set(int start, int[] values, int offset, int length) {
+		if(cells != null) {
+			System.arraycopy(values, offset, cells, start, length);
+			return;
+		}
+		while(length > 0) {
+			int page = start >>> PAGE_SHIFT;
+			int cell = start & PAGE_MASK;
+			int count = Math.min(length, PAGE_SIZE - cell);
+			if(shared[page]) {
+				pages[page] = pages[page].clone();
+				shared[page] = false;
+			}
+			System.arraycopy(values, offset, pages[page], cell, count);
+			start += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	@Override
+	public void clear() {
+		if(cells != null) {
+			Arrays.fill(cells, 0);
+			return;
+		}
+		for(int i = 0; i < pages.length; i++) {
+			if(shared[i]) {
+				pages[i] = new int[PAGE_SIZE];
+				shared[i] = false;
+			} else {
+				Arrays.fill(pages[i], 0);
+			}
+		}
+	}
+
+	@Override
+	public MemoryBackend fork() {
+		return new ArrayBackend(this);
+	}
+
+	@Override
+	public int getSharedPageCount() {
+		if(cells != null) return 0;
+		int count = 0;
+		for(boolean s : shared) {
+			if(s) count++;
+		}
+		return count;
+	}
+}
@@ -1,13 +1,30 @@
 package pippin;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Translates Pippin assembly to an executable in one pass over the source. The
+ * lines are read into a reused buffer by a PasmReader and split by hand, the
+ * executable is written as the lines are read, and every error is collected
+ * with its line number instead of stopping at the first one.
+ */
 public class Assembler {
 	public static Set<String> noArgument = new TreeSet<String>();
 	static {
@@ -15,174 +32,408 @@ public class Assembler {
 		noArgument.add("NOP");
 		noArgument.add("NOT");
 	}
+	/** changed whenever the same source would be assembled differently */
+	public static final int VERSION = 1;
+	private static final String[] MNEMONICS = InstructionMap.opcode.keySet().toArray(new String[0]);
 
 	/**
-	 * Method to assemble a file to its executable representation. If the input has errors
-	 * one of the errors will be reported the StringBulder. The error may not be the first
-	 * error in the code and will depend on the order in which instructions are checked.
-	 * The line number of the error that is reported is returned as the value of the method.
-	 * A return value of 0 indicates that the code had no errors and an output file was 
-	 * produced and saved. If the input or output cannot be opened, the return value is -1.
-	 * The unchecked exception IllegalArgumentException is thrown if the error parameter is
-	 * null, since it would not be possible to provide error information about the source
-	 * code.
+	 * Method to assemble a file to its executable representation. Every error in
+	 * the input is reported in the StringBuilder, one per line in the order of the
+	 * source, and the line number of the first of them is returned as the value of
+	 * the method. A return value of 0 indicates that the code had no errors and an
+	 * output file was produced and saved. The output file is only replaced once it
+	 * is complete. If the input or output cannot be opened, the return value is -1.
+	 * The unchecked exception IllegalArgumentException is thrown if the error
+	 * parameter is null, since it would not be possible to provide error
+	 * information about the source code.
 	 * @param input the source assembly language file
 	 * @param output the executable version of the program if the source program is correctly formatted
-	 * @param error the StringBuilder to store the description of the error that is reported. 
+	 * @param error the StringBuilder to store the descriptions of the errors that are found.
 	 * It will be empty if no error is found
 	 * @return 0 if the source code is correct and the executable is saved, -1 if the input or
-	 * output files cannot be opened, otherwise the line number of the reported error
+	 * output files cannot be opened, otherwise the line number of the first error
 	 */
 	public static int assemble(File input, File output, StringBuilder error) {
 		if(error == null) throw new IllegalArgumentException("Coding error: the error buffer is null");
 
-		int retVal = 0;
-		try (Scanner inp = new Scanner(input)) {
-			int currentLine = 0;
-			int firstBlankLine = 0;
-			boolean blankFound = false;
-			ArrayList<String> inputText = new ArrayList<>();
-
-			while(inp.hasNextLine() && retVal == 0) {
-				String line = inp.nextLine();
-				currentLine++;
-
-				if(line.trim().length() == 0 && blankFound == false) {
-					firstBlankLine = currentLine;
-					blankFound = true;
-				} else if(line.trim().length() != 0 && blankFound == true) {
-					error.append("Illegal blank line in the source file");
-					retVal = firstBlankLine;
-				} else if(line.trim().length() == 0 && blankFound == true) {
-					error.append("Illegal blank line in the source file");
-					retVal = firstBlankLine;
-				} else if(line.charAt(0) == ' ' || line.charAt(0) == '\t') {
-					error.append("Line starts with illegal white space");
-					retVal = currentLine;
-				} else {
-					inputText.add(line.trim());
-				}
+		try {
+			List<Diagnostic> diagnostics = assembleFile(input, output);
+			if(!diagnostics.isEmpty()) {
+				return report(diagnostics, error);
 			}
+			return 0;
+		} catch (FileNotFoundException e) {
+			error.append("Unable to open the assembled file");
+			return -1;
+		} catch (IOException e) {
+			error.append("Error: Unable to write the assembled program to the output file");
+			return -1;
+		}
+	}
 
-			ArrayList<String> inputCode = new ArrayList<>();
-			ArrayList<String> inputData = new ArrayList<>();
-
-			if(retVal == 0) {
-				boolean readingCode = true;
-
-				for(int i = 0; i < inputText.size() && retVal == 0; i++) {
-					if(readingCode == true) {
-						String line = inputText.get(i);
-
-						if(line.equals("ENDCODE")) {
-							readingCode = false;
-						} else if(line.equalsIgnoreCase("ENDCODE")) {
-							error.append("Error on line " + (i+1) + 
-									": \"ENDCODE\" must be upper case");
-							retVal = i+1;
-						} else {
-							inputCode.add(line);
-						}
-					} else {
-						String line = inputText.get(i);
-						inputData.add(line);
-					}
+	/**
+	 * Assembles a file to a text executable. The executable is written to a new
+	 * file beside the output and moved over it in one atomic step when it is
+	 * complete, so another process never sees part of an executable, and two
+	 * assemblies to the same output do not write to the same file.
+	 * @param input the source assembly language file
+	 * @param output the executable, which is only written if there are no errors
+	 * @return the errors in the order of their lines, empty if the output was written
+	 * @throws FileNotFoundException if the input cannot be opened
+	 * @throws IOException if the output cannot be written, which is only thrown
+	 * when the source has no errors
+	 */
+	static List<Diagnostic> assembleFile(File input, File output) throws IOException {
+		try (PasmReader source = new PasmReader(new InputStreamReader(new FileInputStream(input)))) {
+			Path target = output.getAbsoluteFile().toPath();
+			Path temp = target.resolveSibling(output.getName() + "."
+					+ Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			Writer writer;
+			try {
+				writer = Files.newBufferedWriter(temp, StandardOpenOption.CREATE_NEW);
+			} catch (IOException e) {
+				// the source is still checked, so its errors come first
+				List<Diagnostic> diagnostics = translate(source, new Output());
+				if(diagnostics.isEmpty()) throw e;
+				return diagnostics;
+			}
+			try {
+				List<Diagnostic> diagnostics;
+				try (TextOutput text = new TextOutput(writer)) {
+					diagnostics = translate(source, text);
 				}
-
-				ArrayList<String> outputCode = new ArrayList<>();
-
-				for(int i = 0; i < inputCode.size() && retVal == 0; i++) {
-					String[] parts = inputCode.get(i).split("\\s+");
-
-					if(!InstructionMap.opcode.containsKey(parts[0].toUpperCase())) {
-						error.append("Error on line " + (i+1) + ": illegal mnemonic");
-						retVal = i+1;
-					} else if(!parts[0].equals(parts[0].toUpperCase())) {
-						error.append("Error on line " + (i+1) + ": mnemonic must be "
-								+ "upper case");
-						retVal = i+1;
-					} else if(noArgument.contains(parts[0])) {
-						if(parts.length > 1) {
-							error.append("Error on line " + (i+1) + 
-									": this mnemonic cannot take arguments");
-							retVal = i+1;
-						} else {
-							outputCode.add(Integer.toString
-									(InstructionMap.opcode.get(parts[0]), 16) + " 0");
-						}
-					} else {
-						if(parts.length > 2) {
-							error.append("Error on line " + (i+1) + 
-									": this mnemonic has too many arguments");
-							retVal = i+1;
-						} else if(parts.length == 1) {
-							error.append("Error on line " + (i+1) + 
-									": this mnemonic is missing arguments");
-							retVal = i+1;
-						} else {
-							try {
-								int arg = Integer.parseInt(parts[1],16);
-								outputCode.add(Integer.toString(InstructionMap.opcode.get(parts[0]), 16)
-										+ " " + Integer.toString(arg, 16));
-							} catch(NumberFormatException e) {
-								error.append("Error on line " + (i+1) + 
-										": argument is not a hex number");
-								retVal = i+1;
-							}
-						}
-					}
+				if(diagnostics.isEmpty()) {
+					Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+							StandardCopyOption.REPLACE_EXISTING);
 				}
+				return diagnostics;
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
 
-				ArrayList<String> outputData = new ArrayList<>();
-
-				for(int i = 0; i < inputData.size() && retVal == 0; i++) {
-					String[] parts = inputData.get(i).split("\\s+");
-
-					if(parts.length != 2) {
-						error.append("Error on line " + (outputCode.size()+i+2) + 
-								": this data is missing arguments");
-						retVal = outputCode.size()+i+2;
-					} else {
-						try {
-							int arg1 = Integer.parseInt(parts[0],16);
-							int arg2 = Integer.parseInt(parts[1],16);
-							
-							outputData.add(Integer.toString(arg1, 16)
-									+ " " + Integer.toString(arg2, 16));
-						} catch(NumberFormatException e) {
-							error.append("Error on line " + (outputCode.size()+i+2) + 
-									": data integer(s) is not a hex number");
-							retVal = outputCode.size()+i+2;
-						}
-					}
-				}
+	/**
+	 * Assembles a file straight into a program image, without writing an
+	 * executable. The errors are reported as they are by assemble.
+	 * @param input the source assembly language file
+	 * @param error the StringBuilder to store the descriptions of the errors that are found
+	 * @return the image, or null if the source has an error or cannot be opened
+	 */
+	public static ProgramImage assembleImage(File input, StringBuilder error) {
+		if(error == null) throw new IllegalArgumentException("Coding error: the error buffer is null");
+
+		try (PasmReader source = new PasmReader(new InputStreamReader(new FileInputStream(input)))) {
+			AssemblyResult result = assemble(source);
+			if(!result.isSuccess()) {
+				report(result.getDiagnostics(), error);
+			}
+			return result.getImage();
+		} catch (IOException e) {
+			error.append("Unable to open the assembled file");
+			return null;
+		}
+	}
+
+	/**
+	 * Assembles a source held in memory straight into a program image, so a
+	 * program can be edited, assembled and run without writing or reading an
+	 * executable
+	 * @param source the text of the source
+	 * @return the image, or the errors in the source
+	 */
+	public static AssemblyResult assemble(CharSequence source) {
+		if(source == null) throw new IllegalArgumentException("Coding error: the source is null");
+		try {
+			return assemble(new PasmReader(CharBuffer.wrap(source)));
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // a CharBuffer is never read with an error
+		}
+	}
+
+	/**
+	 * Assembles a source read from a Reader straight into a program image. The
+	 * reader is read to the end but not closed.
+	 * @param source the reader of the source
+	 * @return the image, or the errors in the source
+	 * @throws IOException if the reader throws it
+	 */
+	public static AssemblyResult assemble(Reader source) throws IOException {
+		if(source == null) throw new IllegalArgumentException("Coding error: the source is null");
+		return assemble(new PasmReader(source));
+	}
+
+	private static AssemblyResult assemble(PasmReader source) throws IOException {
+		ImageOutput output = new ImageOutput();
+		List<Diagnostic> diagnostics = translate(source, output);
+		return new AssemblyResult(diagnostics.isEmpty() ? output.getImage() : null, diagnostics);
+	}
+
+	// Appends the messages and returns the first line with an error
+	private static int report(List<Diagnostic> diagnostics, StringBuilder error) {
+		for(int i = 0; i < diagnostics.size(); i++) {
+			if(i > 0) error.append('\n');
+			error.append(diagnostics.get(i).getMessage());
+		}
+		return diagnostics.get(0).getLine();
+	}
 
-				if(retVal == 0) {
-					try (PrintWriter outp = new PrintWriter(output)){
-						for(int i=0; i < outputCode.size(); i++) {
-							outp.println(outputCode.get(i));
-						}
+	/**
+	 * Receives the executable as it is translated. Nothing more is sent after
+	 * the first error. This one ignores it, which is how the source is checked
+	 * when the output cannot be written.
+	 */
+	static class Output {
+		void code(int op, int arg) throws IOException {
+		}
 
-						outp.println("-1");
+		void endCode() throws IOException {
+		}
 
-						for(int i=0; i < outputData.size(); i++) {
-							outp.println(outputData.get(i));
-						}
+		/**
+		 * @return false if the address is outside the memory
+		 */
+		boolean data(int address, int value) throws IOException {
+			return true;
+		}
+	}
+
+	// Writes the lines of a text executable
+	private static final class TextOutput extends Output implements Closeable {
+		private final Writer writer;
+		private final char[] digits = new char[9];
+		private final String lineSeparator = System.lineSeparator();
+
+		TextOutput(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		void code(int op, int arg) throws IOException {
+			writeLine(op, arg);
+		}
 
-						outp.close();
-					} catch (FileNotFoundException e) {
-						error.append("Error: Unable to write the assembled program to the output file");
-						retVal = -1;
+		@Override
+		void endCode() throws IOException {
+			writer.write("-1");
+			writer.write(lineSeparator);
+		}
+
+		@Override
+		boolean data(int address, int value) throws IOException {
+			writeLine(address, value);
+			return true;
+		}
+
+		// the same text as Integer.toString(first, 16) + " " + Integer.toString(second, 16)
+		private void writeLine(int first, int second) throws IOException {
+			writeHex(first);
+			writer.write(' ');
+			writeHex(second);
+			writer.write(lineSeparator);
+		}
+
+		private void writeHex(int value) throws IOException {
+			if(value < 0) writer.write('-');
+			long magnitude = Math.abs((long)value);
+			int start = digits.length;
+			do {
+				digits[--start] = Character.forDigit((int)(magnitude & 0xF), 16);
+				magnitude >>>= 4;
+			} while(magnitude != 0);
+			writer.write(digits, start, digits.length - start);
+		}
+
+		@Override
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	// Builds the code and data of an image, with the memory of a new model
+	private static final class ImageOutput extends Output {
+		private final Code code = new Code();
+		private final int[] data = new int[Memory.DATA_SIZE];
+		private int changedIndex = -1;
+
+		@Override
+		void code(int op, int arg) {
+			code.setCode(op, arg);
+		}
+
+		@Override
+		boolean data(int address, int value) {
+			if(address < 0 || address >= data.length) return false;
+			data[address] = value;
+			changedIndex = address;
+			return true;
+		}
+
+		ProgramImage getImage() {
+			return new ProgramImage(code.getWords(), code.getProgramSize(), data, changedIndex);
+		}
+	}
+
+	/**
+	 * Translates the source in one pass
+	 * @param source the lines of the source
+	 * @param output receives the executable while there are no errors
+	 * @return the errors in the order of their lines, empty if there are none
+	 * @throws IOException if the source cannot be read or the output written
+	 */
+	static List<Diagnostic> translate(PasmReader source, Output output) throws IOException {
+		List<Diagnostic> diagnostics = new ArrayList<>();
+		int[] tokens = new int[6]; // start and end of the first three words
+		int firstBlankLine = 0;
+		boolean blankReported = false;
+		boolean readingCode = true;
+
+		while(source.nextLine()) {
+			int lineNumber = source.getLineNumber();
+			char[] line = source.getLine();
+			int start = 0;
+			int end = source.getLength();
+			// the part String.trim keeps
+			while(start < end && line[start] <= ' ') start++;
+			while(end > start && line[end - 1] <= ' ') end--;
+
+			// a single blank line is only allowed at the end of the source, so a
+			// blank line is an error once any line follows it
+			if(firstBlankLine != 0 && !blankReported) {
+				diagnostics.add(new Diagnostic(firstBlankLine, "Illegal blank line in the source file"));
+				blankReported = true;
+			}
+			if(start == end) {
+				if(firstBlankLine == 0) firstBlankLine = lineNumber;
+				continue;
+			}
+			firstBlankLine = 0;
+			blankReported = false;
+			if(line[0] == ' ' || line[0] == '\t') {
+				diagnostics.add(new Diagnostic(lineNumber, "Line starts with illegal white space"));
+				if(isEndCode(line, start, end, false)) readingCode = false;
+				continue;
+			}
+
+			String message = null;
+			if(readingCode && isEndCode(line, start, end, false)) {
+				readingCode = false;
+				if(diagnostics.isEmpty()) output.endCode();
+				continue;
+			} else if(readingCode && isEndCode(line, start, end, true)) {
+				// treated as the end of the code, so the data is checked as data
+				message = "\"ENDCODE\" must be upper case";
+				readingCode = false;
+			} else if(readingCode) {
+				int count = split(line, start, end, tokens);
+				int mnemonic = find(line, tokens[0], tokens[1], true);
+				if(mnemonic < 0) {
+					message = "illegal mnemonic";
+				} else if(find(line, tokens[0], tokens[1], false) < 0) {
+					message = "mnemonic must be upper case";
+				} else if(noArgument.contains(MNEMONICS[mnemonic])) {
+					if(count > 1) {
+						message = "this mnemonic cannot take arguments";
+					} else if(diagnostics.isEmpty()) {
+						output.code(InstructionMap.opcode.get(MNEMONICS[mnemonic]), 0);
+					}
+				} else if(count > 2) {
+					message = "this mnemonic has too many arguments";
+				} else if(count == 1) {
+					message = "this mnemonic is missing arguments";
+				} else {
+					long arg = parseHex(line, tokens[2], tokens[3]);
+					if(arg == Long.MIN_VALUE) {
+						message = "argument is not a hex number";
+					} else if(diagnostics.isEmpty()) {
+						output.code(InstructionMap.opcode.get(MNEMONICS[mnemonic]), (int)arg);
 					}
 				}
+			} else {
+				int count = split(line, start, end, tokens);
+				if(count != 2) {
+					message = "this data is missing arguments";
+				} else {
+					long address = parseHex(line, tokens[0], tokens[1]);
+					long value = parseHex(line, tokens[2], tokens[3]);
+					if(address == Long.MIN_VALUE || value == Long.MIN_VALUE) {
+						message = "data integer(s) is not a hex number";
+					} else if(diagnostics.isEmpty() && !output.data((int)address, (int)value)) {
+						message = "data address " + Integer.toString((int)address, 16)
+								+ " is outside the memory";
+					}
+				}
+			}
+			if(message != null) {
+				diagnostics.add(new Diagnostic(lineNumber, "Error on line " + lineNumber + ": " + message));
 			}
+		}
+		if(readingCode && diagnostics.isEmpty()) {
+			output.endCode();
+		}
+		return diagnostics;
+	}
 
-		} catch (FileNotFoundException e) {
-			error.append("Unable to open the assembled file");
-			retVal = -1;
+	private static boolean isEndCode(char[] line, int start, int end, boolean ignoreCase) {
+		return matches(line, start, end, "ENDCODE", ignoreCase);
+	}
+
+	// Finds the words separated by the whitespace of the regex \s, and returns
+	// the number of words; the bounds of the first three are put in tokens
+	private static int split(char[] line, int start, int end, int[] tokens) {
+		int count = 0;
+		int i = start;
+		while(i < end) {
+			int word = i;
+			while(i < end && !isSpace(line[i])) i++;
+			if(count < 3) {
+				tokens[2 * count] = word;
+				tokens[2 * count + 1] = i;
+			}
+			count++;
+			while(i < end && isSpace(line[i])) i++;
+		}
+		return count;
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+
+	// the index in MNEMONICS of the word, or -1
+	private static int find(char[] line, int start, int end, boolean ignoreCase) {
+		for(int i = 0; i < MNEMONICS.length; i++) {
+			if(matches(line, start, end, MNEMONICS[i], ignoreCase)) return i;
+		}
+		return -1;
+	}
+
+	private static boolean matches(char[] line, int start, int end, String word, boolean ignoreCase) {
+		if(end - start != word.length()) return false;
+		for(int i = 0; i < word.length(); i++) {
+			char c = line[start + i];
+			if(ignoreCase) c = Character.toUpperCase(c);
+			if(c != word.charAt(i)) return false;
 		}
+		return true;
+	}
 
-		return retVal;
+	// Reads the word as Integer.parseInt(word, 16) does, returning
+	// Long.MIN_VALUE where that throws NumberFormatException
+	private static long parseHex(char[] line, int start, int end) {
+		boolean negative = line[start] == '-';
+		if(negative || line[start] == '+') start++;
+		if(start == end) return Long.MIN_VALUE;
+		long value = 0;
+		for(int i = start; i < end; i++) {
+			int digit = Character.digit(line[i], 16);
+			if(digit < 0) return Long.MIN_VALUE;
+			value = 16 * value + digit;
+			if(value > 0x80000000L) return Long.MIN_VALUE;
+		}
+		if(negative) value = -value;
+		if(value > Integer.MAX_VALUE) return Long.MIN_VALUE;
+		return value;
 	}
 
 	public static void main(String[] args) {
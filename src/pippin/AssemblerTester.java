@@ -0,0 +1,74 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class AssemblerTester {
+
+	@Test
+	// the executables in test were made by the assembler this one replaced
+	public void testSameOutput() throws IOException {
+		File output = File.createTempFile("pippin", ".pexe");
+		try {
+			for(String name : new String[] {"qsort", "merge", "factorial8", "26r"}) {
+				StringBuilder error = new StringBuilder();
+				assertEquals(0, Assembler.assemble(new File("pasm/" + name + ".pasm"), output, error));
+				assertEquals("", error.toString());
+				assertArrayEquals(Files.readAllBytes(new File("test/" + name + ".pexe").toPath()),
+						Files.readAllBytes(output.toPath()));
+			}
+		} finally {
+			Files.deleteIfExists(output.toPath());
+		}
+	}
+
+	@Test
+	// every error is reported, and the output is not written
+	public void testAllErrors() throws IOException {
+		File source = File.createTempFile("pippin", ".pasm");
+		File output = new File(source.getPath() + ".pexe");
+		try {
+			Files.write(source.toPath(), "LODI 1\nlod 2\nHALT 3\nSTO\nENDCODE\n1 zz\n\n5 6\n".getBytes());
+			StringBuilder error = new StringBuilder();
+			assertEquals(2, Assembler.assemble(source, output, error));
+			assertEquals("Error on line 2: mnemonic must be upper case\n"
+					+ "Error on line 3: this mnemonic cannot take arguments\n"
+					+ "Error on line 4: this mnemonic is missing arguments\n"
+					+ "Error on line 6: data integer(s) is not a hex number\n"
+					+ "Illegal blank line in the source file", error.toString());
+			assertEquals(false, output.exists());
+		} finally {
+			Files.deleteIfExists(source.toPath());
+			Files.deleteIfExists(output.toPath());
+		}
+	}
+
+	@Test
+	// an image assembled in memory runs the same as the executable on disk
+	public void testAssembleInMemory() throws IOException {
+		String source = new String(Files.readAllBytes(new File("pasm/qsort.pasm").toPath()));
+		AssemblyResult result = Assembler.assemble(source);
+		assertEquals(true, result.isSuccess());
+		MachineModel machine = new MachineModel();
+		machine.load(result.getImage());
+		assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+		MachineModel expected = new MachineModel();
+		expected.load(Loader.loadImage(new File("test/qsort.pexe")));
+		expected.run(Long.MAX_VALUE);
+		assertArrayEquals(expected.getData(), machine.getData());
+
+		result = Assembler.assemble(new StringReader("LODI 1\nENDCODE\n200 1\n1 zz\n"));
+		assertEquals(null, result.getImage());
+		assertEquals(2, result.getDiagnostics().size());
+		assertEquals("Error on line 3: data address 200 is outside the memory",
+				result.getDiagnostics().get(0).getMessage());
+		assertEquals(4, result.getDiagnostics().get(1).getLine());
+	}
+}
@@ -0,0 +1,182 @@
+package pippin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of assembled programs, keyed by the SHA-256 hash of the contents of a
+ * source and Assembler.VERSION, so a source that has not changed is not
+ * assembled again, whatever its name. The images of the programs used most
+ * recently are kept in memory, and every program is stored in a cache directory
+ * in the binary executable form, where another JVM finds it. Both are bounded:
+ * the memory by a number of images and the directory by a number of bytes, and
+ * the entries used least recently are evicted first. A source with errors is
+ * assembled every time and never cached.
+ */
+public class AssemblyCache {
+	private File directory;
+	private long maxBytes;
+	private Map<String, ProgramImage> images;
+	private long memoryHits;
+	private long diskHits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates a cache, whose directory is created when the first program is stored
+	 * @param directory the cache directory
+	 * @param maxImages the most images kept in memory
+	 * @param maxBytes the most bytes of executables kept in the directory
+	 */
+	public AssemblyCache(File directory, int maxImages, long maxBytes) {
+		if(directory == null) throw new IllegalArgumentException("Coding error: the directory is null");
+		if(maxImages < 0 || maxBytes < 0) throw new IllegalArgumentException("Coding error: negative bound");
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		images = new LinkedHashMap<String, ProgramImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ProgramImage> eldest) {
+				if(size() <= maxImages) return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Assembles a source, or finds the program it was assembled to before in
+	 * memory or in the cache directory, in which case the Assembler is not used
+	 * @param source the pasm file
+	 * @return the image, or the errors in the source
+	 * @throws IOException if the source cannot be read
+	 */
+	public AssemblyResult assemble(File source) throws IOException {
+		byte[] text = Files.readAllBytes(source.toPath());
+		String key = key(text);
+		synchronized(this) {
+			ProgramImage image = images.get(key);
+			if(image != null) {
+				memoryHits++;
+				return new AssemblyResult(image, Collections.emptyList());
+			}
+		}
+		File stored = new File(directory, key + "." + BinaryExecutable.EXTENSION);
+		ProgramImage image = null;
+		if(stored.isFile()) {
+			try {
+				image = Loader.loadImage(stored);
+				stored.setLastModified(System.currentTimeMillis());
+			} catch (IllegalArgumentException e) {
+				// a damaged file is replaced below
+			}
+		}
+		if(image != null) {
+			synchronized(this) {
+				diskHits++;
+				images.put(key, image);
+			}
+			return new AssemblyResult(image, Collections.emptyList());
+		}
+
+		AssemblyResult result = Assembler.assemble(new String(text));
+		synchronized(this) {
+			misses++;
+			if(result.isSuccess()) images.put(key, result.getImage());
+		}
+		if(result.isSuccess()) {
+			store(stored, result.getImage());
+		}
+		return result;
+	}
+
+	// Writes the executable and evicts the oldest ones until the directory
+	// fits in maxBytes
+	private void store(File stored, ProgramImage image) throws IOException {
+		Files.createDirectories(directory.toPath());
+		BinaryExecutable.write(stored, image);
+		File[] files = directory.listFiles((dir, name) -> name.endsWith("." + BinaryExecutable.EXTENSION));
+		if(files == null) return;
+		List<File> entries = new ArrayList<>();
+		long total = 0;
+		for(File file : files) {
+			entries.add(file);
+			total += file.length();
+		}
+		entries.sort(Comparator.comparingLong(File::lastModified));
+		for(int i = 0; i < entries.size() && total > maxBytes; i++) {
+			File oldest = entries.get(i);
+			long length = oldest.length();
+			if(Files.deleteIfExists(oldest.toPath())) {
+				total -= length;
+				synchronized(this) {
+					evictions++;
+				}
+			}
+		}
+	}
+
+	static String key(byte[] source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(source);
+			digest.update((byte)Assembler.VERSION);
+			StringBuilder builder = new StringBuilder();
+			for(byte b : digest.digest()) {
+				builder.append(String.format("%02x", b));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The number of sources found in memory
+	 * @return the count of memory hits
+	 */
+	public synchronized long getMemoryHits() {
+		return memoryHits;
+	}
+
+	/**
+	 * The number of sources found in the cache directory but not in memory
+	 * @return the count of disk hits
+	 */
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	/**
+	 * The number of sources that were assembled, including those with errors
+	 * @return the count of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * The number of images dropped from memory and executables deleted from
+	 * the directory to stay within the bounds
+	 * @return the count of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return memoryHits + " memory hits, " + diskHits + " disk hits, " + misses + " misses, "
+				+ evictions + " evictions";
+	}
+}
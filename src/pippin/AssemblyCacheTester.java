@@ -0,0 +1,56 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class AssemblyCacheTester {
+
+	@Test
+	public void testCache() throws IOException {
+		File directory = Files.createTempDirectory("pippin").toFile();
+		try {
+			File qsort = new File("pasm/qsort.pasm");
+			File factorial = new File("pasm/factorial8.pasm");
+			AssemblyCache cache = new AssemblyCache(directory, 1, 1 << 20);
+			ProgramImage image = cache.assemble(qsort).getImage();
+			assertEquals(image, cache.assemble(qsort).getImage());
+			cache.assemble(factorial);
+			// qsort was evicted from memory but is still in the directory
+			ProgramImage stored = cache.assemble(qsort).getImage();
+			assertEquals(false, cache.assemble(new File("pasm/06e.pasm")).isSuccess());
+			assertEquals(1, cache.getMemoryHits());
+			assertEquals(1, cache.getDiskHits());
+			assertEquals(3, cache.getMisses());
+			assertEquals(2, cache.getEvictions());
+			assertEquals(2, directory.listFiles().length);
+
+			MachineModel expected = new MachineModel();
+			expected.load(image);
+			expected.run(Long.MAX_VALUE);
+			MachineModel machine = new MachineModel();
+			machine.load(stored);
+			machine.run(Long.MAX_VALUE);
+			assertArrayEquals(expected.getData(), machine.getData());
+			assertEquals(expected.getChangedIndex(), machine.getChangedIndex());
+
+			// another cache on the directory finds the program, and a bound
+			// smaller than one executable keeps none of them
+			cache = new AssemblyCache(directory, 1, 1);
+			cache.assemble(factorial);
+			assertEquals(1, cache.getDiskHits());
+			cache.assemble(new File("pasm/merge.pasm"));
+			assertEquals(0, directory.listFiles().length);
+		} finally {
+			for(File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package pippin;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of one source in a batch assembled by BatchAssembler
+ */
+public class AssemblyReport {
+	private File source;
+	private File output;
+	private List<Diagnostic> diagnostics;
+	private String failure;
+	private long wallNanos;
+
+	public AssemblyReport(File source, File output, List<Diagnostic> diagnostics,
+			String failure, long wallNanos) {
+		this.source = source;
+		this.output = output;
+		this.diagnostics = Collections.unmodifiableList(diagnostics);
+		this.failure = failure;
+		this.wallNanos = wallNanos;
+	}
+
+	public File getSource() {
+		return source;
+	}
+
+	/**
+	 * The executable, which was written only if isSuccess()
+	 * @return the output file
+	 */
+	public File getOutput() {
+		return output;
+	}
+
+	/**
+	 * The errors in the source
+	 * @return the errors in the order of their lines, empty if there are none
+	 */
+	public List<Diagnostic> getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * Why the source could not be read or the output written
+	 * @return the reason, or null if the files could be used
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	public boolean isSuccess() {
+		return failure == null && diagnostics.isEmpty();
+	}
+
+	/**
+	 * The time taken to assemble the source
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	/**
+	 * The rows of the summary printed by BatchAssembler: one for a success or a
+	 * failure, and one for each error otherwise. Each row is the source, the
+	 * outcome, the line and the message, separated by tabs, with 0 for no line.
+	 * @return the rows, each ending with a line separator
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		if(isSuccess()) {
+			row(builder, "success", 0, output.getPath());
+		} else if(failure != null) {
+			row(builder, "failed", 0, failure);
+		} else {
+			for(Diagnostic diagnostic : diagnostics) {
+				row(builder, "error", diagnostic.getLine(), diagnostic.getMessage());
+			}
+		}
+		return builder.toString();
+	}
+
+	private void row(StringBuilder builder, String outcome, int line, String message) {
+		builder.append(source.getPath()).append('\t').append(outcome).append('\t')
+				.append(line).append('\t').append(message.replace('\t', ' '))
+				.append(System.lineSeparator());
+	}
+}
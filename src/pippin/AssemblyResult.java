@@ -0,0 +1,49 @@
+package pippin;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What Assembler.assemble made of a source held in memory: the image of the
+ * program if the source is correct, and otherwise every error in it
+ */
+public final class AssemblyResult {
+	private final ProgramImage image;
+	private final List<Diagnostic> diagnostics;
+
+	AssemblyResult(ProgramImage image, List<Diagnostic> diagnostics) {
+		this.image = image;
+		this.diagnostics = Collections.unmodifiableList(diagnostics);
+	}
+
+	/**
+	 * The assembled program, ready for MachineModel.load
+	 * @return the image, or null if there are errors
+	 */
+	public ProgramImage getImage() {
+		return image;
+	}
+
+	/**
+	 * The errors in the order of their lines
+	 * @return the errors, empty if the source is correct
+	 */
+	public List<Diagnostic> getDiagnostics() {
+		return diagnostics;
+	}
+
+	public boolean isSuccess() {
+		return image != null;
+	}
+
+	@Override
+	public String toString() {
+		if(isSuccess()) return "success";
+		StringBuilder builder = new StringBuilder();
+		for(Diagnostic diagnostic : diagnostics) {
+			if(builder.length() > 0) builder.append('\n');
+			builder.append(diagnostic.getMessage());
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,128 @@
+package pippin;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Assembles every source in a directory tree concurrently in one JVM, on a
+ * ForkJoinPool as BatchRunner runs executables. The executable of a source is
+ * written to the same relative path under the output directory, with the
+ * extension pexe, and replaces any earlier one atomically when it is complete.
+ */
+public class BatchAssembler {
+	private ForkJoinPool pool;
+
+	/**
+	 * Creates an assembler with a worker for each processor
+	 */
+	public BatchAssembler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an assembler
+	 * @param parallelism the number of worker threads
+	 */
+	public BatchAssembler(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Lists the sources in a directory and its subdirectories
+	 * @param directory the directory to search
+	 * @return the pasm files, sorted by path
+	 * @throws IOException if the directory cannot be read
+	 */
+	public static List<File> sources(File directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			return paths.filter(p -> p.toString().endsWith(".pasm") && Files.isRegularFile(p))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Assembles every source in a directory tree and returns when all of them
+	 * are done
+	 * @param sourceDirectory the directory to search
+	 * @param outputDirectory the root of the executables, which may be the
+	 * source directory
+	 * @param results called once for each source, in the order they finish.
+	 * The calls are never made at the same time.
+	 * @throws IOException if the source directory cannot be read
+	 */
+	public void assemble(File sourceDirectory, File outputDirectory,
+			Consumer<AssemblyReport> results) throws IOException {
+		Path sourceRoot = sourceDirectory.toPath();
+		Path outputRoot = outputDirectory.toPath();
+		List<File> files = sources(sourceDirectory);
+		if(files.isEmpty()) return;
+		pool.invoke(new BatchRunner.Jobs<>(files, 0, files.size(),
+				file -> assembleOne(file, output(sourceRoot, outputRoot, file)), results));
+	}
+
+	private static File output(Path sourceRoot, Path outputRoot, File source) {
+		String name = source.getName();
+		name = name.substring(0, name.length() - "pasm".length()) + "pexe";
+		return outputRoot.resolve(sourceRoot.relativize(source.toPath())).resolveSibling(name).toFile();
+	}
+
+	/**
+	 * Assembles one source
+	 * @param source the pasm file
+	 * @param output the executable, whose directory is made if it is missing
+	 * @return the errors or the failure, if there are any
+	 */
+	public static AssemblyReport assembleOne(File source, File output) {
+		long start = System.nanoTime();
+		List<Diagnostic> diagnostics = new ArrayList<>();
+		String failure = null;
+		try {
+			File directory = output.getAbsoluteFile().getParentFile();
+			if(directory != null) Files.createDirectories(directory.toPath());
+			diagnostics = Assembler.assembleFile(source, output);
+		} catch (FileNotFoundException e) {
+			failure = "Unable to open the source file";
+		} catch (IOException e) {
+			failure = "Unable to write the executable: " + e;
+		}
+		return new AssemblyReport(source, output, diagnostics, failure, System.nanoTime() - start);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Assembles a directory tree and prints the summary as tab separated rows
+	 * of source, outcome, line and message, as they finish. The totals are
+	 * printed to the error stream so the output can be read by another program.
+	 * @param args the source directory, and optionally the output directory,
+	 * which is the source directory by default
+	 */
+	public static void main(String[] args) throws IOException {
+		File sources = new File(args.length > 0 ? args[0] : "pasm");
+		File outputs = args.length > 1 ? new File(args[1]) : sources;
+		BatchAssembler assembler = new BatchAssembler();
+		int[] totals = new int[2];
+		long start = System.nanoTime();
+		System.out.println("source\toutcome\tline\tmessage");
+		assembler.assemble(sources, outputs, report -> {
+			System.out.print(report);
+			totals[report.isSuccess() ? 0 : 1]++;
+		});
+		assembler.shutdown();
+		System.err.println(totals[0] + " assembled, " + totals[1] + " with errors, "
+				+ (System.nanoTime() - start)/1000 + " microseconds");
+	}
+}
@@ -0,0 +1,45 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchAssemblerTester {
+
+	@Test
+	// the tree is assembled to the executables in test/, and each source with
+	// errors is reported and has no executable
+	public void testAssembleTree() throws IOException {
+		File outputs = Files.createTempDirectory("pippin").toFile();
+		try {
+			List<AssemblyReport> reports = new ArrayList<>();
+			BatchAssembler assembler = new BatchAssembler(4);
+			assembler.assemble(new File("pasm"), outputs, reports::add);
+			assembler.shutdown();
+			assertEquals(BatchAssembler.sources(new File("pasm")).size(), reports.size());
+			for(AssemblyReport report : reports) {
+				String name = report.getOutput().getName();
+				assertEquals(new File(outputs, name), report.getOutput());
+				assertEquals(name, !report.getDiagnostics().isEmpty(), name.matches("\\d+e\\.pexe"));
+				assertEquals(name, report.isSuccess(), report.getOutput().exists());
+				File expected = new File("test", name);
+				if(expected.exists()) {
+					assertArrayEquals(Files.readAllBytes(expected.toPath()),
+							Files.readAllBytes(report.getOutput().toPath()));
+				}
+			}
+		} finally {
+			for(File file : outputs.listFiles()) {
+				file.delete();
+			}
+			outputs.delete();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package pippin;
+
+import java.io.File;
+
+/**
+ * The outcome of one executable in a batch run by BatchRunner
+ */
+public class BatchResult {
+	private File file;
+	private String loadResult;
+	private RunResult run;
+	private int accumulator;
+	private long checksum;
+	private long wallNanos;
+
+	public BatchResult(File file, String loadResult, RunResult run, int accumulator,
+			long checksum, long wallNanos) {
+		this.file = file;
+		this.loadResult = loadResult;
+		this.run = run;
+		this.accumulator = accumulator;
+		this.checksum = checksum;
+		this.wallNanos = wallNanos;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * The message returned by Loader.load
+	 * @return "success", or the reason the executable could not be loaded
+	 */
+	public String getLoadResult() {
+		return loadResult;
+	}
+
+	/**
+	 * The result of running the program
+	 * @return the run result, or null if the executable was not loaded
+	 */
+	public RunResult getRun() {
+		return run;
+	}
+
+	public int getAccumulator() {
+		return accumulator;
+	}
+
+	/**
+	 * The checksum of the data memory when the run stopped
+	 * @return the value of Memory.checksum()
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * The time taken to load and run the executable
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	public long getSteps() {
+		return run == null ? 0 : run.getSteps();
+	}
+
+	/**
+	 * Formats the result as one tab separated line: file, outcome, accumulator,
+	 * checksum, steps and wall time in microseconds
+	 */
+	@Override
+	public String toString() {
+		String outcome;
+		if(run == null) {
+			outcome = loadResult;
+		} else if(run.getReason() == HaltReason.FAULT) {
+			outcome = run.getFault() + "@" + run.getFaultProgramCounter();
+		} else {
+			outcome = run.getReason().toString();
+		}
+		return file.getPath() + "\t" + outcome + "\t" + accumulator + "\t"
+				+ String.format("%016x", checksum) + "\t" + getSteps() + "\t" + wallNanos/1000;
+	}
+}
@@ -0,0 +1,180 @@
+package pippin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs every executable in a directory tree concurrently in one JVM. The jobs are
+ * split in halves on a ForkJoinPool, so an idle worker steals the remaining half
+ * of a busy worker's share and a few long programs do not hold up the rest. Each
+ * job loads its executable into its own MachineModel, runs it with the fast
+ * interpreter and passes its BatchResult to the consumer as soon as it finishes.
+ */
+public class BatchRunner {
+	/** the step limit used by main, which stops programs that never halt */
+	public static final long DEFAULT_MAX_STEPS = 100_000_000L;
+
+	private ForkJoinPool pool;
+	private long maxSteps;
+
+	/**
+	 * Creates a runner with a worker for each processor
+	 * @param maxSteps the most instructions any one program may retire
+	 */
+	public BatchRunner(long maxSteps) {
+		this(Runtime.getRuntime().availableProcessors(), maxSteps);
+	}
+
+	/**
+	 * Creates a runner
+	 * @param parallelism the number of worker threads
+	 * @param maxSteps the most instructions any one program may retire
+	 */
+	public BatchRunner(int parallelism, long maxSteps) {
+		if(maxSteps < 0) throw new IllegalArgumentException("Coding error: maxSteps is negative");
+		pool = new ForkJoinPool(parallelism);
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Lists the executables in a directory and its subdirectories
+	 * @param directory the directory to search
+	 * @return the pexe and pbin files, sorted by path
+	 * @throws IOException if the directory cannot be read
+	 */
+	public static List<File> executables(File directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			return paths.filter(p -> (p.toString().endsWith(".pexe")
+					|| p.toString().endsWith("." + BinaryExecutable.EXTENSION)) && Files.isRegularFile(p))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Runs every executable in a directory tree and returns when all of them
+	 * have finished
+	 * @param directory the directory to search
+	 * @param results called once for each executable, in the order they finish.
+	 * The calls are never made at the same time.
+	 * @throws IOException if the directory cannot be read
+	 */
+	public void run(File directory, Consumer<BatchResult> results) throws IOException {
+		run(executables(directory), results);
+	}
+
+	/**
+	 * Runs the executables and returns when all of them have finished
+	 * @param files the pexe files to run
+	 * @param results called once for each executable, in the order they finish.
+	 * The calls are never made at the same time.
+	 */
+	public void run(List<File> files, Consumer<BatchResult> results) {
+		run(files, file -> runOne(file, maxSteps), results);
+	}
+
+	// Runs the job for every file on the pool, which DataSweep shares
+	void run(List<File> files, Function<File, BatchResult> job, Consumer<BatchResult> results) {
+		if(files.isEmpty()) return;
+		pool.invoke(new Jobs<>(files, 0, files.size(), job, results));
+	}
+
+	long getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * Loads and runs one executable on a new machine
+	 * @param file the pexe file
+	 * @param maxSteps the most instructions to retire
+	 * @return the result of the run, which has no RunResult if the file
+	 * could not be loaded
+	 */
+	public static BatchResult runOne(File file, long maxSteps) {
+		long start = System.nanoTime();
+		MachineModel model = new MachineModel();
+		String loaded;
+		try {
+			loaded = Loader.load(model, file);
+		} catch (RuntimeException e) {
+			loaded = e.toString();
+		}
+		RunResult run = null;
+		if("success".equals(loaded)) {
+			model.setRunning(true);
+			run = model.run(maxSteps);
+		}
+		return new BatchResult(file, loaded, run, model.getAccumulator(),
+				model.getMemory().checksum(), System.nanoTime() - start);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Applies a job to each file, splitting the files in halves. BatchAssembler
+	// uses it too.
+	static class Jobs<R> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private List<File> files;
+		private int from;
+		private int to;
+		private Function<File, R> job;
+		private Consumer<R> results;
+
+		Jobs(List<File> files, int from, int to, Function<File, R> job,
+				Consumer<R> results) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.job = job;
+			this.results = results;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from == 1) {
+				R result = job.apply(files.get(from));
+				synchronized(results) {
+					results.accept(result);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Jobs<>(files, from, middle, job, results),
+						new Jobs<>(files, middle, to, job, results));
+			}
+		}
+	}
+
+	/**
+	 * Runs a directory of executables and prints a line for each of them as it
+	 * finishes, followed by the totals
+	 * @param args the directory, and optionally the step limit for each program
+	 */
+	public static void main(String[] args) throws IOException {
+		File directory = new File(args.length > 0 ? args[0] : "test");
+		long maxSteps = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_MAX_STEPS;
+		BatchRunner runner = new BatchRunner(maxSteps);
+		long[] totals = new long[2];
+		long start = System.nanoTime();
+		System.out.println("file\toutcome\taccumulator\tchecksum\tsteps\tmicroseconds");
+		runner.run(directory, result -> {
+			System.out.println(result);
+			totals[0]++;
+			totals[1] += result.getSteps();
+		});
+		runner.shutdown();
+		System.out.println(totals[0] + " programs, " + totals[1] + " steps, "
+				+ (System.nanoTime() - start)/1000 + " microseconds");
+	}
+}
@@ -0,0 +1,62 @@
+package pippin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class BatchRunnerTester {
+
+	@Test
+	// every program in test/ gives the same result on the pool as on its own
+	public void testSameAsSequential() throws IOException {
+		List<File> files = BatchRunner.executables(new File("test"));
+		Map<String, BatchResult> results = new TreeMap<>();
+		BatchRunner runner = new BatchRunner(4, BatchRunner.DEFAULT_MAX_STEPS);
+		runner.run(files, result -> results.put(result.getFile().getPath(), result));
+		runner.shutdown();
+		assertEquals(files.size(), results.size());
+		for(File file : files) {
+			BatchResult expected = BatchRunner.runOne(file, BatchRunner.DEFAULT_MAX_STEPS);
+			BatchResult actual = results.get(file.getPath());
+			assertEquals(file.getName(), expected.getLoadResult(), actual.getLoadResult());
+			assertEquals(file.getName(), expected.getAccumulator(), actual.getAccumulator());
+			assertEquals(file.getName(), expected.getChecksum(), actual.getChecksum());
+			assertEquals(file.getName(), expected.getSteps(), actual.getSteps());
+		}
+	}
+
+	@Test
+	public void testFaultAndLimit() {
+		BatchResult result = BatchRunner.runOne(new File("test/31r.pexe"), 1000);
+		assertEquals(Fault.DIVIDE_BY_ZERO, result.getRun().getFault());
+		result = BatchRunner.runOne(new File("test/qsort.pexe"), 1000);
+		assertEquals(HaltReason.STEP_LIMIT, result.getRun().getReason());
+		assertEquals(1000, result.getSteps());
+		result = BatchRunner.runOne(new File("test/missing.pexe"), 1000);
+		assertNull(result.getRun());
+	}
+
+	@Test
+	// the data section of an executable is a data set for its own program
+	public void testSweep() {
+		ProgramImage image = Loader.loadImage(new File("test/merge.pexe"));
+		BatchResult expected = BatchRunner.runOne(new File("test/merge.pexe"), 1_000_000);
+		BatchRunner runner = new BatchRunner(4, 1_000_000);
+		SweepTable table = new SweepTable();
+		new DataSweep(image, runner).run(
+				Collections.nCopies(20, new File("test/merge.pexe")), table);
+		runner.shutdown();
+		assertEquals(20, table.getCount("HALT"));
+		assertEquals(1, table.getDistinctChecksums());
+		assertEquals(expected.getChecksum(), table.getRows().get(0).getChecksum());
+		assertEquals(20 * expected.getSteps(), table.getTotalSteps());
+	}
+}
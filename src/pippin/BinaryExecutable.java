@@ -0,0 +1,373 @@
+package pippin;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The binary form of a Pippin executable, which is loaded by mapping the file
+ * instead of parsing a line of text for every cell. All the numbers are big
+ * endian:
+ * <pre>
+ * int   MAGIC
+ * int   VERSION
+ * int   the number of instructions
+ * int   the number of data blocks
+ * long  one packed op and arg for each instruction, as in Code
+ * then for each block
+ * int   the address of the first cell
+ * int   the number of cells
+ * int   one value for each cell
+ * </pre>
+ * The blocks are in the order of the data lines of the text form, and a block
+ * holds a run of lines with consecutive addresses, so an isolated cell is a
+ * block of length 1 and an array is a single block. Loading writes the cells in
+ * the same order as loading the text, so the changed index is the same.
+ * Loader.load and Loader.loadImage recognize the binary form by its magic number.
+ */
+public final class BinaryExecutable {
+	/** the first 4 bytes, which cannot start a text executable */
+	public static final int MAGIC = 0x7F504258;
+	public static final int VERSION = 1;
+	public static final String EXTENSION = "pbin";
+	private static final int HEADER_SIZE = 16;
+	private static final int BLOCK_COUNT_OFFSET = 12;
+
+	private BinaryExecutable() {
+	}
+
+	/**
+	 * Checks whether a file starts with the magic number of the binary form
+	 * @param file the file to check
+	 * @return false if the file is text, or cannot be read
+	 */
+	public static boolean isBinary(File file) {
+		try (InputStream input = Files.newInputStream(file.toPath())) {
+			byte[] magic = new byte[4];
+			return input.read(magic) == 4 && isBinary(ByteBuffer.wrap(magic));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether the contents of an executable start with the magic number
+	 * @param buffer the contents, which are not moved
+	 * @return false if the contents are text
+	 */
+	static boolean isBinary(ByteBuffer buffer) {
+		return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * Loads a binary executable into a model, the way Loader.load loads the text
+	 * @param model the model to load
+	 * @param file the executable
+	 * @param withCode false to load only the data, as Loader.loadData does
+	 * @return "success", or the reason the file could not be loaded
+	 */
+	static String load(MachineModel model, File file, boolean withCode) {
+		try {
+			ByteBuffer buffer = map(file);
+			int codeSize = readHeader(buffer);
+			LongBuffer words = buffer.asLongBuffer();
+			words.limit(codeSize);
+			if(withCode) {
+				model.appendCode(words);
+			}
+			buffer.position(HEADER_SIZE + 8 * codeSize);
+			int blocks = buffer.getInt(BLOCK_COUNT_OFFSET);
+			int[] values = new int[Math.max(1, Math.min(buffer.remaining() / 4, 1024))];
+			for(int i = 0; i < blocks; i++) {
+				int address = buffer.getInt();
+				int length = readLength(buffer);
+				for(int done = 0; done < length; done += values.length) {
+					int count = Math.min(values.length, length - done);
+					buffer.asIntBuffer().get(values, 0, count);
+					buffer.position(buffer.position() + 4 * count);
+					model.getMemory().setData(address + done, values, 0, count);
+				}
+			}
+			return "success";
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return("Array Index " + e.getMessage());
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			return("Truncated executable");
+		} catch (IllegalArgumentException e) {
+			return(e.getMessage());
+		} catch (FileNotFoundException e) {
+			return("File " + file.getName() + " Not Found");
+		} catch (IOException e) {
+			return("File " + file.getName() + " " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Loads a binary executable straight into the arrays of an image, without a
+	 * model. The data memory has DATA_SIZE cells, as it does for a text executable.
+	 * @param file the executable
+	 * @return the image
+	 * @throws IllegalArgumentException if the file cannot be loaded, with the
+	 * message that load returns
+	 */
+	static ProgramImage loadImage(File file) {
+		try {
+			return loadImage(map(file));
+		} catch (FileNotFoundException e) {
+			throw new IllegalArgumentException("File " + file.getName() + " Not Found");
+		} catch (IOException e) {
+			throw new IllegalArgumentException("File " + file.getName() + " " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Loads a binary executable that is already in memory into an image
+	 * @param buffer the contents of the executable, from its magic number on
+	 * @return the image
+	 * @throws IllegalArgumentException if the executable cannot be loaded, with
+	 * the message that load returns
+	 */
+	static ProgramImage loadImage(ByteBuffer buffer) {
+		try {
+			int codeSize = readHeader(buffer);
+			long[] words = new long[codeSize];
+			buffer.asLongBuffer().get(words);
+			buffer.position(HEADER_SIZE + 8 * codeSize);
+			int blocks = buffer.getInt(BLOCK_COUNT_OFFSET);
+			int[] data = new int[Memory.DATA_SIZE];
+			int changedIndex = -1;
+			for(int i = 0; i < blocks; i++) {
+				int address = buffer.getInt();
+				int length = readLength(buffer);
+				if(length == 0) continue;
+				if(address < 0 || (long)address + length > data.length) {
+					int index = address < 0 ? address : Math.max(address, data.length);
+					throw new ArrayIndexOutOfBoundsException("Index " + index
+							+ " out of bounds for length " + data.length);
+				}
+				IntBuffer values = buffer.asIntBuffer();
+				values.get(data, address, length);
+				buffer.position(buffer.position() + 4 * length);
+				changedIndex = address + length - 1;
+			}
+			return new ProgramImage(words, codeSize, data, changedIndex);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Array Index " + e.getMessage());
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated executable");
+		}
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		if(!file.isFile()) throw new FileNotFoundException(file.getName());
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	// Checks the header and leaves the buffer at the first instruction
+	private static int readHeader(ByteBuffer buffer) {
+		if(buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+			throw new IllegalArgumentException("Not a binary Pippin executable");
+		}
+		int version = buffer.getInt();
+		if(version != VERSION) {
+			throw new IllegalArgumentException("Unsupported executable version " + version);
+		}
+		int codeSize = readLength(buffer);
+		buffer.getInt(); // the number of blocks, which is read after the code
+		if((long)HEADER_SIZE + 8L * codeSize > buffer.limit()) {
+			throw new BufferUnderflowException();
+		}
+		return codeSize;
+	}
+
+	private static int readLength(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0) throw new IllegalArgumentException("Negative length in executable");
+		return length;
+	}
+
+	/**
+	 * Writes the binary form of an executable
+	 * @param file the file to write, which is replaced only when it is complete
+	 * @param words the packed instructions
+	 * @param size the number of instructions
+	 * @param data the address and value of each data line, in order
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(File file, long[] words, int size, List<int[]> data) throws IOException {
+		List<int[]> blocks = new ArrayList<>(); // first index and end index in data
+		for(int i = 0; i < data.size(); i++) {
+			if(i == 0 || data.get(i)[0] != data.get(i - 1)[0] + 1) {
+				blocks.add(new int[] {i, i});
+			}
+			blocks.get(blocks.size() - 1)[1] = i + 1;
+		}
+		int dataSize = 8 * blocks.size() + 4 * data.size();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * size + dataSize);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(blocks.size());
+		buffer.asLongBuffer().put(words, 0, size);
+		buffer.position(HEADER_SIZE + 8 * size);
+		for(int[] block : blocks) {
+			buffer.putInt(data.get(block[0])[0]).putInt(block[1] - block[0]);
+			for(int i = block[0]; i < block[1]; i++) {
+				buffer.putInt(data.get(i)[1]);
+			}
+		}
+		buffer.flip();
+		// a new file for each writer, so processes sharing a directory do not
+		// write to the same temporary file
+		Path target = file.getAbsoluteFile().toPath();
+		Path temp = target.resolveSibling(file.getName() + "."
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.WRITE)) {
+				while(buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Writes an image in the binary form. The cells that are not 0 are written
+	 * in address order, except the changed index of the image, which is written
+	 * last. Loading the file into a cleared model or an image gives the same
+	 * memory and changed index as the image.
+	 * @param file the file to write, which is replaced only when it is complete
+	 * @param image the program and data to write
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(File file, ProgramImage image) throws IOException {
+		List<int[]> data = new ArrayList<>();
+		int changedIndex = image.getChangedIndex();
+		for(int i = 0; i < image.getDataSize(); i++) {
+			if(image.getData(i) != 0 && i != changedIndex) {
+				data.add(new int[] {i, image.getData(i)});
+			}
+		}
+		if(changedIndex >= 0) {
+			data.add(new int[] {changedIndex, image.getData(changedIndex)});
+		}
+		write(file, image.newCode().getWords(), image.getProgramSize(), data);
+	}
+
+	/**
+	 * Converts a text executable to the binary form. The text is read by the
+	 * same code as Loader.load, but the data may be at any address.
+	 * @param text the pexe file
+	 * @param binary the file to write
+	 * @throws IOException if either file cannot be used
+	 * @throws IllegalArgumentException if a line of the text is not two numbers
+	 * in hex, with the message that Loader.load returns
+	 */
+	public static void toBinary(File text, File binary) throws IOException {
+		Code code = new Code();
+		List<int[]> data = new ArrayList<>();
+		String result;
+		try (PexeReader input = new PexeReader(text)) {
+			result = Loader.read(input, new Loader.Lines() {
+				@Override
+				public void code(int op, int arg) {
+					code.setCode(op, arg);
+				}
+
+				@Override
+				public void endCode() {
+				}
+
+				@Override
+				public void data(int address, int value) {
+					data.add(new int[] {address, value});
+				}
+
+				@Override
+				public void flush() {
+				}
+			});
+		}
+		if(!"success".equals(result)) {
+			throw new IllegalArgumentException(result);
+		}
+		write(binary, code.getWords(), code.getProgramSize(), data);
+	}
+
+	/**
+	 * Converts a binary executable to the text form
+	 * @param binary the file to read
+	 * @param text the pexe file to write
+	 * @throws IOException if either file cannot be used
+	 * @throws IllegalArgumentException if the binary file is not valid
+	 */
+	public static void toText(File binary, File text) throws IOException {
+		ByteBuffer buffer = map(binary);
+		int codeSize;
+		try {
+			codeSize = readHeader(buffer);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated executable");
+		}
+		try (PrintWriter output = new PrintWriter(text)) {
+			for(int i = 0; i < codeSize; i++) {
+				long word = buffer.getLong();
+				output.println(Integer.toString((int)(word >> 32), 16) + " "
+						+ Integer.toString((int)word, 16));
+			}
+			output.println("-1");
+			int blocks = buffer.getInt(BLOCK_COUNT_OFFSET);
+			for(int i = 0; i < blocks; i++) {
+				int address = buffer.getInt();
+				int length = readLength(buffer);
+				for(int j = 0; j < length; j++) {
+					output.println(Integer.toString(address + j, 16) + " "
+							+ Integer.toString(buffer.getInt(), 16));
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated executable");
+		}
+	}
+
+	/**
+	 * Converts between the forms. The direction is chosen by reading the input.
+	 * @param args the input file and the output file
+	 */
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.out.println("usage: BinaryExecutable input output");
+			return;
+		}
+		File input = new File(args[0]);
+		File output = new File(args[1]);
+		try {
+			if(isBinary(input)) {
+				toText(input, output);
+			} else {
+				toBinary(input, output);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(args[0] + " " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BinaryExecutableTester {
+
+	private void checkSame(MachineModel expected, MachineModel actual) {
+		assertArrayEquals(expected.getCode().getWords(), actual.getCode().getWords());
+		assertArrayEquals(expected.getData(), actual.getData());
+		assertEquals(expected.getChangedIndex(), actual.getChangedIndex());
+	}
+
+	@Test
+	// both forms of every test executable load the same code and data
+	public void testRoundTrip() throws IOException {
+		File binary = File.createTempFile("pippin", ".pbin");
+		File text = File.createTempFile("pippin", ".pexe");
+		try {
+			for(File file : BatchRunner.executables(new File("test"))) {
+				MachineModel expected = new MachineModel(true);
+				String result = Loader.load(expected, file);
+				if(!"success".equals(result)) continue;
+				BinaryExecutable.toBinary(file, binary);
+				assertTrue(BinaryExecutable.isBinary(binary));
+				MachineModel actual = new MachineModel(true);
+				assertEquals("success", Loader.load(actual, binary));
+				checkSame(expected, actual);
+				ProgramImage image = Loader.loadImage(binary);
+				MachineModel fromImage = new MachineModel(true);
+				fromImage.load(image);
+				checkSame(expected, fromImage);
+
+				BinaryExecutable.toText(binary, text);
+				assertEquals(false, BinaryExecutable.isBinary(text));
+				actual = new MachineModel(true);
+				assertEquals("success", Loader.load(actual, text));
+				checkSame(expected, actual);
+			}
+		} finally {
+			Files.deleteIfExists(binary.toPath());
+			Files.deleteIfExists(text.toPath());
+		}
+	}
+
+	@Test
+	public void testBadFiles() throws IOException {
+		File binary = File.createTempFile("pippin", ".pbin");
+		try {
+			BinaryExecutable.toBinary(new File("test/qsort.pexe"), binary);
+			byte[] bytes = Files.readAllBytes(binary.toPath());
+			Files.write(binary.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+			assertEquals("Truncated executable", Loader.load(new MachineModel(true), binary));
+			bytes[7] = 9;
+			Files.write(binary.toPath(), bytes);
+			assertEquals("Unsupported executable version 9",
+					Loader.load(new MachineModel(true), binary));
+		} finally {
+			Files.deleteIfExists(binary.toPath());
+		}
+	}
+
+	@Test
+	// a bad line is reported as Loader.load reports it
+	public void testBadText() throws IOException {
+		File text = File.createTempFile("pippin", ".pexe");
+		File binary = File.createTempFile("pippin", ".pbin");
+		try {
+			Files.write(text.toPath(), "1 5\n-1\n4\n".getBytes());
+			String expected = Loader.load(new MachineModel(true), text);
+			assertEquals("NoSuchElementException on line 3", expected);
+			try {
+				BinaryExecutable.toBinary(text, binary);
+				fail("toBinary read a bad line");
+			} catch (IllegalArgumentException e) {
+				assertEquals(expected, e.getMessage());
+			}
+		} finally {
+			Files.deleteIfExists(text.toPath());
+			Files.deleteIfExists(binary.toPath());
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package pippin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for the JVM class file format, just large enough for the classes
+ * made by JitCompiler. The classes are written with major version 49, which the
+ * JVM verifies by type inference, so no stack map frames have to be computed for
+ * the branches.
+ */
+class ClassFileWriter {
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	// The opcodes used by JitCompiler
+	static final int ICONST_0 = 0x03;
+	static final int LCONST_0 = 0x09;
+	static final int LCONST_1 = 0x0A;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int ILOAD = 0x15;
+	static final int LLOAD = 0x16;
+	static final int ALOAD = 0x19;
+	static final int ISTORE = 0x36;
+	static final int LSTORE = 0x37;
+	static final int POP = 0x57;
+	static final int DUP = 0x59;
+	static final int IADD = 0x60;
+	static final int LADD = 0x61;
+	static final int ISUB = 0x64;
+	static final int IMUL = 0x68;
+	static final int IDIV = 0x6C;
+	static final int LCMP = 0x94;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9A;
+	static final int IFGE = 0x9C;
+	static final int GOTO = 0xA7;
+	static final int TABLESWITCH = 0xAA;
+	static final int IRETURN = 0xAC;
+	static final int RETURN = 0xB1;
+	static final int GETFIELD = 0xB4;
+	static final int PUTFIELD = 0xB5;
+	static final int INVOKEVIRTUAL = 0xB6;
+	static final int INVOKESPECIAL = 0xB7;
+	static final int INVOKESTATIC = 0xB8;
+
+	private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private DataOutputStream pool = new DataOutputStream(poolBytes);
+	private Map<String, Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+	private List<byte[]> methods = new ArrayList<>();
+
+	/**
+	 * A position in the code of a method that branches can refer to before it
+	 * is marked
+	 */
+	static class Label {
+		private int position = -1;
+	}
+
+	/**
+	 * The code of one method. Branch offsets are patched in end() once
+	 * every label has been marked.
+	 */
+	class MethodWriter {
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		// each fixup is {position of the offset, position of the branch, width}
+		private List<int[]> fixups = new ArrayList<>();
+		private List<Label> fixupLabels = new ArrayList<>();
+		private int access;
+		private String name;
+		private String descriptor;
+
+		private MethodWriter(int access, String name, String descriptor) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		void op(int opcode) {
+			bytes.write(opcode);
+		}
+
+		void op(int opcode, int operand) {
+			bytes.write(opcode);
+			bytes.write(operand);
+		}
+
+		void opShort(int opcode, int operand) {
+			bytes.write(opcode);
+			writeShort(operand);
+		}
+
+		private void writeShort(int value) {
+			bytes.write(value >> 8);
+			bytes.write(value);
+		}
+
+		private void writeInt(int value) {
+			writeShort(value >> 16);
+			writeShort(value);
+		}
+
+		void pushInt(int value) {
+			if(value >= -1 && value <= 5) {
+				op(ICONST_0 + value);
+			} else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				op(BIPUSH, value & 0xFF);
+			} else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				opShort(SIPUSH, value & 0xFFFF);
+			} else {
+				opShort(LDC_W, integer(value));
+			}
+		}
+
+		void mark(Label label) {
+			label.position = bytes.size();
+		}
+
+		void jump(int opcode, Label target) {
+			int start = bytes.size();
+			op(opcode);
+			fixups.add(new int[] {bytes.size(), start, 2});
+			fixupLabels.add(target);
+			writeShort(0);
+		}
+
+		void tableSwitch(Label otherwise, Label[] targets) {
+			int start = bytes.size();
+			op(TABLESWITCH);
+			while(bytes.size() % 4 != 0) {
+				bytes.write(0);
+			}
+			fixups.add(new int[] {bytes.size(), start, 4});
+			fixupLabels.add(otherwise);
+			writeInt(0);
+			writeInt(0);
+			writeInt(targets.length - 1);
+			for(Label target : targets) {
+				fixups.add(new int[] {bytes.size(), start, 4});
+				fixupLabels.add(target);
+				writeInt(0);
+			}
+		}
+
+		void invoke(int opcode, String owner, String name, String descriptor) {
+			opShort(opcode, member(10, owner, name, descriptor));
+		}
+
+		void field(int opcode, String owner, String name, String descriptor) {
+			opShort(opcode, member(9, owner, name, descriptor));
+		}
+
+		void ldcString(String value) {
+			opShort(LDC_W, string(value));
+		}
+
+		/**
+		 * Adds the finished method to the class
+		 * @param maxStack the deepest the operand stack gets
+		 * @param maxLocals the number of local variable slots, including the arguments
+		 */
+		void end(int maxStack, int maxLocals) {
+			byte[] code = bytes.toByteArray();
+			if(code.length > Short.MAX_VALUE) {
+				throw new IllegalStateException("Method " + name + " is too large to compile");
+			}
+			for(int i = 0; i < fixups.size(); i++) {
+				int[] fixup = fixups.get(i);
+				int offset = fixupLabels.get(i).position - fixup[1];
+				for(int j = 0; j < fixup[2]; j++) {
+					code[fixup[0] + j] = (byte)(offset >> (8 * (fixup[2] - 1 - j)));
+				}
+			}
+			try {
+				int codeAttribute = utf8("Code");
+				int nameIndex = utf8(name);
+				int descriptorIndex = utf8(descriptor);
+				ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(methodBytes);
+				out.writeShort(access);
+				out.writeShort(nameIndex);
+				out.writeShort(descriptorIndex);
+				out.writeShort(1);
+				out.writeShort(codeAttribute);
+				out.writeInt(12 + code.length);
+				out.writeShort(maxStack);
+				out.writeShort(maxLocals);
+				out.writeInt(code.length);
+				out.write(code);
+				out.writeShort(0); // exception table
+				out.writeShort(0); // attributes
+				methods.add(methodBytes.toByteArray());
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	MethodWriter method(int access, String name, String descriptor) {
+		return new MethodWriter(access, name, descriptor);
+	}
+
+	/**
+	 * Writes the class file
+	 * @param access the access flags of the class
+	 * @param name the internal name of the class, such as pippin/Example
+	 * @param superName the internal name of the superclass
+	 * @return the bytes of the class file
+	 * @throws IllegalStateException if the constant pool is too large
+	 */
+	byte[] toByteArray(int access, String name, String superName) {
+		int thisIndex = classRef(name);
+		int superIndex = classRef(superName);
+		if(poolCount > 0xFFFF) {
+			throw new IllegalStateException("Class " + name + " has too many constants to compile");
+		}
+		try {
+			ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(classBytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(poolCount);
+			out.write(poolBytes.toByteArray());
+			out.writeShort(access);
+			out.writeShort(thisIndex);
+			out.writeShort(superIndex);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(methods.size());
+			for(byte[] method : methods) {
+				out.write(method);
+			}
+			out.writeShort(0); // attributes
+			return classBytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// The constant pool entries are shared, keyed by their tag and contents
+
+	private int entry(String key, int tag, PoolWriter writer) {
+		Integer index = poolIndex.get(key);
+		if(index == null) {
+			try {
+				pool.writeByte(tag);
+				writer.write();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = poolCount++;
+			poolIndex.put(key, index);
+		}
+		return index;
+	}
+
+	private interface PoolWriter {
+		void write() throws IOException;
+	}
+
+	int utf8(String value) {
+		return entry("1:" + value, 1, () -> pool.writeUTF(value));
+	}
+
+	int integer(int value) {
+		return entry("3:" + value, 3, () -> pool.writeInt(value));
+	}
+
+	int classRef(String name) {
+		int nameIndex = utf8(name);
+		return entry("7:" + name, 7, () -> pool.writeShort(nameIndex));
+	}
+
+	int string(String value) {
+		int valueIndex = utf8(value);
+		return entry("8:" + value, 8, () -> pool.writeShort(valueIndex));
+	}
+
+	private int member(int tag, String owner, String name, String descriptor) {
+		int ownerIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		int nameAndType = entry("12:" + name + ":" + descriptor, 12, () -> {
+			pool.writeShort(nameIndex);
+			pool.writeShort(descriptorIndex);
+		});
+		return entry(tag + ":" + owner + "." + name + ":" + descriptor, tag, () -> {
+			pool.writeShort(ownerIndex);
+			pool.writeShort(nameAndType);
+		});
+	}
+}
@@ -1,11 +1,55 @@
 package pippin;
 
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * The instructions of a program, packed as one op and arg per long. The store
+ * starts with room for CODE_MAX instructions and doubles whenever it is full, so
+ * a program has no fixed limit on its size. CODE_MAX is still the number of rows
+ * the code view shows.
+ */
 public class Code {
+	/** the initial capacity of the store and the number of rows in the view */
 	public final static int CODE_MAX = 256;
 	private int nextCodeLocation;
 	private long[] code = new long[CODE_MAX];
+	// true while code is the array of a ProgramImage or of another Code,
+	// which is copied before the first change
+	private boolean shared;
+
+	public Code() {
+	}
+
+	/**
+	 * Creates a store with room for a program of known size, such as the size
+	 * given in the header of an executable, so loading it never grows the store
+	 * @param capacity the number of instructions to allocate
+	 */
+	public Code(int capacity) {
+		if(capacity < 0) throw new IllegalArgumentException("Coding error: negative code capacity");
+		code = new long[capacity];
+	}
+
+	Code(long[] words, int size) {
+		code = words;
+		nextCodeLocation = size;
+		shared = true;
+	}
+
+	// Lets another Code use the same words until either of them changes them
+	Code share() {
+		shared = true;
+		return new Code(code, nextCodeLocation);
+	}
 
 	public void setCode(int op, int arg) {
+		if(shared || nextCodeLocation == code.length) {
+			int capacity = Math.max(CODE_MAX, code.length);
+			if(nextCodeLocation == code.length) capacity = Math.max(CODE_MAX, 2 * code.length);
+			code = Arrays.copyOf(code, capacity);
+			shared = false;
+		}
 		long longOp = op;
 		long longArg = arg;
 		longArg = longArg & 0x00000000FFFFFFFFL;
@@ -14,6 +58,20 @@ public class Code {
 		code[nextCodeLocation++] = longOpArg | longArg;
 	}
 
+	/**
+	 * Appends packed instructions, growing the store once for all of them
+	 * @param words the words from the position to the limit of the buffer
+	 */
+	void append(LongBuffer words) {
+		int length = words.remaining();
+		if(shared || code.length - nextCodeLocation < length) {
+			code = Arrays.copyOf(code, Math.max(CODE_MAX, nextCodeLocation + length));
+			shared = false;
+		}
+		words.get(code, nextCodeLocation, length);
+		nextCodeLocation += length;
+	}
+
 	public int getProgramSize() {
 		return nextCodeLocation;
 	}
@@ -29,10 +87,22 @@ public class Code {
 		return (int)(code[i] >> 32);
 	}
 
+	/**
+	 * A copy of the packed instructions of the program
+	 * @return an array holding one op and arg per element
+	 */
+	long[] getWords() {
+		return Arrays.copyOf(code, nextCodeLocation);
+	}
+
 	public void clear() {
-        for(int i = 0; i < CODE_MAX; i++) {
-            code[i] = 0;
-        }
+		if(shared) {
+			// the new store is already zero and may be shorter than the program
+			code = new long[CODE_MAX];
+			shared = false;
+		} else {
+			Arrays.fill(code, 0, nextCodeLocation, 0);
+		}
         nextCodeLocation = 0;
     }
 
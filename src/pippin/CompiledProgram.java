@@ -0,0 +1,117 @@
+package pippin;
+
+import java.nio.LongBuffer;
+
+/**
+ * Superclass of the classes that JitCompiler generates from Pippin programs. The
+ * generated run method holds the accumulator, program counter and step count in
+ * local variables and writes them back to the model and to the steps field when
+ * it returns. The static methods are called by the generated code for
+ * the instructions that are awkward to express as straight-line bytecode.
+ */
+public abstract class CompiledProgram implements ExecutionEngine {
+	private static final Fault[] FAULTS = Fault.values();
+	private MachineModel model;
+	// updated by the generated code, so it must stay package-private
+	long steps;
+
+	void setModel(MachineModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * Runs the compiled program from the program counter of the model until a HALT
+	 * instruction is executed, maxSteps instructions have been retired or an
+	 * instruction fails
+	 * @param model the model whose registers are read and written back
+	 * @param memory the data memory of the model
+	 * @param maxSteps the most instructions to retire
+	 * @return JitCompiler.STEP_LIMIT, or the ordinal of the Fault that stopped
+	 * the run, which is NONE for a HALT
+	 */
+	abstract int run(MachineModel model, Memory memory, long maxSteps);
+
+	/**
+	 * Puts the program and its initial data into a cleared model. Only the classes
+	 * compiled ahead of time by AotCache carry the data they were loaded with, so
+	 * the classes compiled by JitCompiler.compile load only the program.
+	 * @param model the model to load
+	 * @throws ArrayIndexOutOfBoundsException if the data does not fit in the
+	 * memory of the model
+	 */
+	abstract void load(MachineModel model);
+
+	@Override
+	public void execute() {
+		RunResult result = run(Long.MAX_VALUE);
+		if(result.getFault() != Fault.NONE) {
+			throw result.getFault().toException(result.getFaultProgramCounter());
+		}
+	}
+
+	@Override
+	public RunResult run(long maxSteps) {
+		long before = steps;
+		long start = System.nanoTime();
+		int stopped = run(model, model.getMemory(), maxSteps);
+		long elapsed = System.nanoTime() - start;
+		if(stopped == JitCompiler.STEP_LIMIT) {
+			model.setFault(Fault.NONE, -1);
+			return new RunResult(HaltReason.STEP_LIMIT, steps - before, elapsed, Fault.NONE, -1);
+		}
+		Fault fault = FAULTS[stopped];
+		int pc = fault == Fault.NONE ? -1 : model.getProgramCounter();
+		model.setFault(fault, pc);
+		model.setRunning(false);
+		return new RunResult(fault == Fault.NONE ? HaltReason.HALT : HaltReason.FAULT,
+				steps - before, elapsed, fault, pc);
+	}
+
+	@Override
+	public long getSteps() {
+		return steps;
+	}
+
+	// The program and data of a generated load method are packed into string
+	// constants with two chars for each int, high half first, and unpacked by
+	// these loops, so a large data section costs a few constants and calls
+
+	static void appendCode(MachineModel model, String packed) {
+		long[] words = new long[packed.length() / 4];
+		for(int i = 0; i < words.length; i++) {
+			words[i] = ((long)unpack(packed, 4 * i) << 32) | (unpack(packed, 4 * i + 2) & 0xFFFFFFFFL);
+		}
+		model.appendCode(LongBuffer.wrap(words));
+	}
+
+	// Each run of cells is packed as its start, its length and its values
+	static void setData(MachineModel model, String packed) {
+		Memory memory = model.getMemory();
+		int i = 0;
+		while(i < packed.length()) {
+			int start = unpack(packed, i);
+			int[] values = new int[unpack(packed, i + 2)];
+			i += 4;
+			for(int j = 0; j < values.length; j++, i += 2) {
+				values[j] = unpack(packed, i);
+			}
+			memory.setData(start, values, 0, values.length);
+		}
+	}
+
+	private static int unpack(String packed, int index) {
+		return (packed.charAt(index) << 16) | packed.charAt(index + 1);
+	}
+
+	static int and(int acc, int value) {
+		return (value != 0 && acc != 0) ? 1 : 0;
+	}
+
+	static int not(int value) {
+		return (value == 0) ? 1 : 0;
+	}
+
+	static int negative(int value) {
+		return (value < 0) ? 1 : 0;
+	}
+}
@@ -0,0 +1,505 @@
+package pippin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The basic blocks of a program and the jumps between them, with the natural
+ * loops found from the dominators, and an upper bound on the steps a run can
+ * take. A block starts at instruction 0, at the target of a JMPI or JMZI and
+ * after a JMPI, JUMP, JMZI, JMPZ or HALT, and ends before the next start.
+ * JUMP and JMPZ take their targets from data memory, so the block that ends
+ * with one is marked indirect and has no edge to the targets it may take.
+ */
+public final class ControlFlowGraph {
+	/** the bound of a program whose runs may not end */
+	public static final long UNBOUNDED = -1;
+
+	private static final int JMPI = 0x6;
+	private static final int JUMP = 0x7;
+	private static final int JMZI = 0x8;
+	private static final int JMPZ = 0x9;
+	private static final int HALT = InstructionSet.HALT;
+
+	/**
+	 * The instructions from start up to end, which always run in order
+	 */
+	public static final class Block {
+		private final int index;
+		private final int start;
+		private final int end;
+		private final boolean indirect;
+		private final List<Block> successors = new ArrayList<>();
+		private final List<Block> predecessors = new ArrayList<>();
+
+		private Block(int index, int start, int end, boolean indirect) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+			this.indirect = indirect;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * The address after the last instruction of the block
+		 * @return the end of the block
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		/**
+		 * The number of instructions in the block, which are the steps it takes
+		 * @return the size of the block
+		 */
+		public int getSize() {
+			return end - start;
+		}
+
+		/**
+		 * Whether the block ends with a JUMP or JMPZ, whose targets are not
+		 * in the successors
+		 * @return true if the block jumps to an address in memory
+		 */
+		public boolean isIndirect() {
+			return indirect;
+		}
+
+		public List<Block> getSuccessors() {
+			return Collections.unmodifiableList(successors);
+		}
+
+		public List<Block> getPredecessors() {
+			return Collections.unmodifiableList(predecessors);
+		}
+
+		@Override
+		public String toString() {
+			return "B" + index + "[" + Integer.toHexString(start) + ", " + Integer.toHexString(end) + ")";
+		}
+	}
+
+	/**
+	 * A natural loop: a header that dominates the blocks of the loop, and the
+	 * blocks that can reach a jump back to the header without passing it.
+	 * The loops with the same header are one loop.
+	 */
+	public static final class Loop {
+		private final Block header;
+		private final List<Block> blocks;
+
+		private Loop(Block header, List<Block> blocks) {
+			this.header = header;
+			this.blocks = blocks;
+		}
+
+		public Block getHeader() {
+			return header;
+		}
+
+		/**
+		 * The blocks of the loop, including the header and any inner loops
+		 * @return the blocks in order of address
+		 */
+		public List<Block> getBlocks() {
+			return Collections.unmodifiableList(blocks);
+		}
+
+		public boolean contains(Block block) {
+			return blocks.contains(block);
+		}
+
+		@Override
+		public String toString() {
+			return "loop at " + Integer.toHexString(header.start) + " " + blocks;
+		}
+	}
+
+	private final List<Block> blocks = new ArrayList<>();
+	private final Block[] blockAt;
+	// the blocks reached from the entry in reverse postorder
+	private final List<Block> order = new ArrayList<>();
+	private final int[] idom;
+	private final List<Loop> loops = new ArrayList<>();
+	private boolean reducible = true;
+	private boolean indirect;
+
+	private ControlFlowGraph(Code code) {
+		int size = code.getProgramSize();
+		blockAt = new Block[size];
+		boolean[] leader = new boolean[size + 1];
+		leader[0] = true;
+		for(int i = 0; i < size; i++) {
+			int op = code.getOp(i);
+			int arg = code.getArg(i);
+			if((op == JMPI || op == JMZI) && arg >= 0 && arg < size) leader[arg] = true;
+			if(op == JMPI || op == JUMP || op == JMZI || op == JMPZ || op == HALT) leader[i + 1] = true;
+		}
+		for(int start = 0; start < size;) {
+			int end = start + 1;
+			while(end < size && !leader[end]) end++;
+			int last = code.getOp(end - 1);
+			Block block = new Block(blocks.size(), start, end, last == JUMP || last == JMPZ);
+			blocks.add(block);
+			Arrays.fill(blockAt, start, end, block);
+			start = end;
+		}
+		for(Block block : blocks) {
+			int op = code.getOp(block.end - 1);
+			int arg = code.getArg(block.end - 1);
+			if((op == JMPI || op == JMZI) && arg >= 0 && arg < size) {
+				addEdge(block, blockAt[arg]);
+			}
+			if(op != JMPI && op != JUMP && op != HALT && block.end < size) {
+				addEdge(block, blockAt[block.end]);
+			}
+		}
+		idom = new int[blocks.size()];
+		if(!blocks.isEmpty()) {
+			orderBlocks();
+			findDominators();
+			findLoops();
+		}
+	}
+
+	/**
+	 * Builds the graph of a program
+	 * @param code the program
+	 * @return the graph
+	 */
+	public static ControlFlowGraph of(Code code) {
+		if(code == null) throw new IllegalArgumentException("Coding error: the code is null");
+		return new ControlFlowGraph(code);
+	}
+
+	private static void addEdge(Block from, Block to) {
+		if(!from.successors.contains(to)) {
+			from.successors.add(to);
+			to.predecessors.add(from);
+		}
+	}
+
+	// Finds the reverse postorder of the reachable blocks, and marks the graph
+	// irreducible later if an edge to a block on the search path is not a
+	// jump back to a dominator
+	private void orderBlocks() {
+		int count = blocks.size();
+		boolean[] visited = new boolean[count];
+		int[] stack = new int[count];
+		int[] nextSuccessor = new int[count];
+		List<Block> postorder = new ArrayList<>();
+		int depth = 0;
+		stack[depth++] = 0;
+		visited[0] = true;
+		while(depth > 0) {
+			Block block = blocks.get(stack[depth - 1]);
+			if(nextSuccessor[block.index] < block.successors.size()) {
+				Block next = block.successors.get(nextSuccessor[block.index]++);
+				if(!visited[next.index]) {
+					visited[next.index] = true;
+					stack[depth++] = next.index;
+				}
+			} else {
+				postorder.add(block);
+				depth--;
+			}
+			if(block.indirect) indirect = true;
+		}
+		for(int i = postorder.size() - 1; i >= 0; i--) {
+			order.add(postorder.get(i));
+		}
+	}
+
+	// The iterative algorithm of Cooper, Harvey and Kennedy over the
+	// reverse postorder
+	private void findDominators() {
+		int[] position = new int[blocks.size()];
+		Arrays.fill(position, -1);
+		for(int i = 0; i < order.size(); i++) {
+			position[order.get(i).index] = i;
+		}
+		Arrays.fill(idom, -1);
+		idom[0] = 0;
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int i = 1; i < order.size(); i++) {
+				Block block = order.get(i);
+				int dominator = -1;
+				for(Block predecessor : block.predecessors) {
+					int p = predecessor.index;
+					if(idom[p] < 0) continue;
+					if(dominator < 0) {
+						dominator = p;
+						continue;
+					}
+					int a = p;
+					while(a != dominator) {
+						while(position[a] > position[dominator]) a = idom[a];
+						while(position[dominator] > position[a]) dominator = idom[dominator];
+					}
+				}
+				if(idom[block.index] != dominator) {
+					idom[block.index] = dominator;
+					changed = true;
+				}
+			}
+		}
+		// a jump to a block that is not after it in the order, other than to
+		// a dominator, enters a cycle at more than one block
+		for(Block block : order) {
+			for(Block successor : block.successors) {
+				if(position[successor.index] <= position[block.index] && !dominates(successor, block)) {
+					reducible = false;
+				}
+			}
+		}
+	}
+
+	private void findLoops() {
+		Map<Block, BitSet> bodies = new HashMap<>();
+		List<Block> headers = new ArrayList<>();
+		for(Block block : order) {
+			for(Block header : block.successors) {
+				if(!dominates(header, block)) continue;
+				BitSet body = bodies.get(header);
+				if(body == null) {
+					body = new BitSet();
+					body.set(header.index);
+					bodies.put(header, body);
+					headers.add(header);
+				}
+				List<Block> work = new ArrayList<>();
+				if(!body.get(block.index)) {
+					body.set(block.index);
+					work.add(block);
+				}
+				while(!work.isEmpty()) {
+					Block next = work.remove(work.size() - 1);
+					for(Block predecessor : next.predecessors) {
+						if(idom[predecessor.index] >= 0 && !body.get(predecessor.index)) {
+							body.set(predecessor.index);
+							work.add(predecessor);
+						}
+					}
+				}
+			}
+		}
+		for(Block header : headers) {
+			BitSet body = bodies.get(header);
+			List<Block> members = new ArrayList<>();
+			for(int i = body.nextSetBit(0); i >= 0; i = body.nextSetBit(i + 1)) {
+				members.add(blocks.get(i));
+			}
+			loops.add(new Loop(header, members));
+		}
+		// an inner loop is smaller than the loops around it
+		loops.sort((a, b) -> a.blocks.size() - b.blocks.size());
+	}
+
+	/**
+	 * Whether every path from the entry to a block passes another block
+	 * @param dominator the block that may be passed
+	 * @param block the block to reach, which must be reachable
+	 * @return true if dominator dominates block, which includes itself
+	 */
+	public boolean dominates(Block dominator, Block block) {
+		int b = block.index;
+		if(idom[b] < 0) return false;
+		while(true) {
+			if(b == dominator.index) return true;
+			if(b == 0) return false;
+			b = idom[b];
+		}
+	}
+
+	/**
+	 * The blocks of the program, including those the entry does not reach
+	 * @return the blocks in order of address
+	 */
+	public List<Block> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/**
+	 * The block of an instruction
+	 * @param address the address of the instruction
+	 * @return the block, or null if the address is outside the code
+	 */
+	public Block getBlock(int address) {
+		return address >= 0 && address < blockAt.length ? blockAt[address] : null;
+	}
+
+	public boolean isReachable(Block block) {
+		return idom[block.index] >= 0;
+	}
+
+	/**
+	 * The natural loops reached from the entry
+	 * @return the loops, with each inner loop before the loops around it
+	 */
+	public List<Loop> getLoops() {
+		return Collections.unmodifiableList(loops);
+	}
+
+	/**
+	 * Whether every cycle is entered only through its loop header, which is
+	 * always true of a program whose jumps are all structured loops
+	 * @return false if some cycle is not a natural loop
+	 */
+	public boolean isReducible() {
+		return reducible;
+	}
+
+	/**
+	 * Whether a reachable block ends with JUMP or JMPZ
+	 * @return true if the graph may be missing edges
+	 */
+	public boolean hasIndirectJumps() {
+		return indirect;
+	}
+
+	/**
+	 * A bound on the steps of a program without loops
+	 * @return the most steps of a run, or UNBOUNDED if the program has a loop
+	 */
+	public long worstCaseSteps() {
+		return worstCaseSteps(Collections.emptyMap());
+	}
+
+	/**
+	 * A bound on the steps of any run, from the bounds of its loops. Each loop
+	 * is replaced by its bound times its longest path from the header, with
+	 * the inner loops replaced first, and the bound is the longest path from
+	 * the entry through what remains. A run that faults ends before the bound.
+	 * @param loopBounds for the address of each loop header, the most times the
+	 * header runs each time the loop is entered
+	 * @return the most steps of a run, or UNBOUNDED if a loop has no bound, a
+	 * cycle is not a natural loop or a JUMP or JMPZ is reached
+	 */
+	public long worstCaseSteps(Map<Integer, Long> loopBounds) {
+		if(blocks.isEmpty()) return 0;
+		if(indirect || !reducible) return UNBOUNDED;
+		int count = blocks.size();
+		// node i is block i until a loop containing it is replaced by node
+		// count + the index of the loop
+		int[] node = new int[count];
+		long[] cost = new long[count + loops.size()];
+		for(Block block : blocks) {
+			node[block.index] = block.index;
+			cost[block.index] = block.getSize();
+		}
+		for(int i = 0; i < loops.size(); i++) {
+			Loop loop = loops.get(i);
+			Long bound = loopBounds.get(loop.header.start);
+			if(bound == null || bound < 0) return UNBOUNDED;
+			boolean[] inLoop = new boolean[count + loops.size()];
+			for(Block block : loop.blocks) inLoop[node[block.index]] = true;
+			long iteration = longestPath(node[loop.header.index], node, cost, inLoop);
+			if(iteration == UNBOUNDED) return UNBOUNDED;
+			int replacement = count + i;
+			cost[replacement] = multiply(bound, iteration);
+			for(Block block : loop.blocks) node[block.index] = replacement;
+		}
+		return longestPath(node[0], node, cost, null);
+	}
+
+	// The longest path from start through the nodes in allowed, or through
+	// all of them if allowed is null, without the edges back to start
+	private long longestPath(int start, int[] node, long[] cost, boolean[] allowed) {
+		int nodes = cost.length;
+		List<List<Integer>> edges = new ArrayList<>();
+		for(int i = 0; i < nodes; i++) edges.add(new ArrayList<>());
+		for(Block block : order) {
+			int from = node[block.index];
+			if(allowed != null && !allowed[from]) continue;
+			for(Block successor : block.successors) {
+				int to = node[successor.index];
+				if(to == from || to == start || (allowed != null && !allowed[to])) continue;
+				if(!edges.get(from).contains(to)) edges.get(from).add(to);
+			}
+		}
+		// postorder of a depth first search, which fails on a cycle
+		int[] state = new int[nodes];
+		long[] longest = new long[nodes];
+		List<Integer> postorder = new ArrayList<>();
+		int[] stack = new int[nodes];
+		int[] next = new int[nodes];
+		int depth = 0;
+		stack[depth++] = start;
+		state[start] = 1;
+		while(depth > 0) {
+			int n = stack[depth - 1];
+			if(next[n] < edges.get(n).size()) {
+				int to = edges.get(n).get(next[n]++);
+				if(state[to] == 1) return UNBOUNDED;
+				if(state[to] == 0) {
+					state[to] = 1;
+					stack[depth++] = to;
+				}
+			} else {
+				state[n] = 2;
+				postorder.add(n);
+				depth--;
+			}
+		}
+		for(int n : postorder) {
+			long tail = 0;
+			for(int to : edges.get(n)) tail = Math.max(tail, longest[to]);
+			longest[n] = add(cost[n], tail);
+		}
+		return longest[start];
+	}
+
+	private static long add(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	private static long multiply(long a, long b) {
+		if(a != 0 && b > Long.MAX_VALUE / a) return Long.MAX_VALUE;
+		return a * b;
+	}
+
+	/**
+	 * Prints the blocks and loops of an executable and its bound
+	 * @param args the executable, then a header address and bound in hex for
+	 * each loop, such as 1=8
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("usage: ControlFlowGraph executable [header=bound ...]");
+			return;
+		}
+		try {
+			ControlFlowGraph graph = of(Loader.loadImage(new File(args[0])).newCode());
+			Map<Integer, Long> bounds = new HashMap<>();
+			for(int i = 1; i < args.length; i++) {
+				String[] pair = args[i].split("=");
+				bounds.put(Integer.parseInt(pair[0], 16), Long.parseLong(pair[1], 16));
+			}
+			for(Block block : graph.blocks) {
+				System.out.println(block + " -> " + block.successors
+						+ (block.indirect ? " indirect" : "")
+						+ (graph.isReachable(block) ? "" : " unreachable"));
+			}
+			for(Loop loop : graph.loops) {
+				System.out.println(loop);
+			}
+			if(!graph.reducible) System.out.println("irreducible");
+			long bound = graph.worstCaseSteps(bounds);
+			System.out.println("worst case steps: " + (bound == UNBOUNDED ? "unbounded" : bound));
+		} catch (IllegalArgumentException e) {
+			System.out.println(args[0] + " " + e.getMessage());
+		}
+	}
+}
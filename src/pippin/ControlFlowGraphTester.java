@@ -0,0 +1,80 @@
+package pippin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ControlFlowGraphTester {
+
+	private long steps(ProgramImage image) {
+		MachineModel machine = new MachineModel();
+		machine.load(image);
+		RunResult result = machine.run(Long.MAX_VALUE);
+		assertEquals(HaltReason.HALT, result.getReason());
+		return result.getSteps();
+	}
+
+	@Test
+	public void testBlocksAndLoop() {
+		ProgramImage image = Loader.loadImage(new File("test/factorial8.pexe"));
+		ControlFlowGraph graph = ControlFlowGraph.of(image.newCode());
+		assertEquals("[B0[0, 1), B1[1, 8), B2[8, b), B3[b, c)]", graph.getBlocks().toString());
+		assertEquals(1, graph.getLoops().size());
+		ControlFlowGraph.Loop loop = graph.getLoops().get(0);
+		assertEquals(1, loop.getHeader().getStart());
+		assertEquals(2, loop.getBlocks().size());
+		assertEquals(ControlFlowGraph.UNBOUNDED, graph.worstCaseSteps());
+		Map<Integer, Long> bounds = new HashMap<>();
+		bounds.put(1, 8L);
+		// the last pass through the loop does not multiply
+		assertEquals(82, graph.worstCaseSteps(bounds));
+		assertTrue(steps(image) <= 82);
+	}
+
+	@Test
+	public void testNestedLoops() {
+		ProgramImage image = Assembler.assemble("LODI 3\nSTO 0\nLODI 2\nSTO 1\nLOD 1\nSUBI 1\n"
+				+ "STO 1\nJMZI 9\nJMPI 4\nLOD 0\nSUBI 1\nSTO 0\nJMZI E\nJMPI 2\nHALT\nENDCODE\n").getImage();
+		ControlFlowGraph graph = ControlFlowGraph.of(image.newCode());
+		assertEquals(2, graph.getLoops().size());
+		assertEquals(4, graph.getLoops().get(0).getHeader().getStart());
+		assertEquals(2, graph.getLoops().get(1).getHeader().getStart());
+		assertTrue(graph.getLoops().get(1).contains(graph.getBlock(4)));
+		Map<Integer, Long> bounds = new HashMap<>();
+		bounds.put(2, 3L);
+		assertEquals(ControlFlowGraph.UNBOUNDED, graph.worstCaseSteps(bounds));
+		bounds.put(4, 2L);
+		assertEquals(54, graph.worstCaseSteps(bounds));
+		assertEquals(50, steps(image));
+	}
+
+	@Test
+	public void testAcyclic() {
+		ProgramImage image = Assembler.assemble("LOD 0\nJMZI 5\nADDI 1\nSTO 0\nSTO 1\nHALT\n"
+				+ "ENDCODE\n0 1\n").getImage();
+		ControlFlowGraph graph = ControlFlowGraph.of(image.newCode());
+		assertEquals(0, graph.getLoops().size());
+		assertEquals(6, graph.worstCaseSteps());
+		assertEquals(6, steps(image));
+		assertEquals(0, ControlFlowGraph.of(new Code()).worstCaseSteps());
+	}
+
+	@Test
+	// a cycle entered at two blocks, and jumps through memory
+	public void testNoBound() {
+		ControlFlowGraph graph = ControlFlowGraph.of(Assembler.assemble("JMZI 3\nNOP\nJMPI 3\nNOP\n"
+				+ "JMZI 1\nHALT\nENDCODE\n").getImage().newCode());
+		assertEquals(false, graph.isReducible());
+		assertEquals(0, graph.getLoops().size());
+		assertEquals(ControlFlowGraph.UNBOUNDED, graph.worstCaseSteps());
+
+		graph = ControlFlowGraph.of(Loader.loadImage(new File("test/qsort.pexe")).newCode());
+		assertEquals(true, graph.hasIndirectJumps());
+		assertEquals(ControlFlowGraph.UNBOUNDED, graph.worstCaseSteps());
+	}
+}
@@ -0,0 +1,123 @@
+package pippin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs one program against many data sets on all cores. The DecodedProgram of
+ * the ProgramImage is shared read-only by every worker. The machines
+ * are pooled: a worker takes an idle machine, resets its memory and registers,
+ * loads a data set with Loader.loadData, runs it and gives the machine back, so
+ * a sweep allocates about one machine per worker however many data sets it runs.
+ * The jobs are spread over the work-stealing pool of a BatchRunner.
+ */
+public class DataSweep {
+	private DecodedProgram program;
+	private BatchRunner runner;
+	private ConcurrentLinkedQueue<FastInterpreter> idle = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a sweep for the program of an image. The data of the image is not
+	 * used, each run starts from its data set alone.
+	 * @param image the program, whose decoded form is shared by the workers
+	 * @param runner the runner whose pool and step limit are used
+	 */
+	public DataSweep(ProgramImage image, BatchRunner runner) {
+		if(image == null) throw new IllegalArgumentException("Coding error: the image is null");
+		if(runner == null) throw new IllegalArgumentException("Coding error: the runner is null");
+		program = image.getDecodedProgram();
+		this.runner = runner;
+	}
+
+	/**
+	 * Lists the data sets in a directory, which are all the regular files in it
+	 * @param directory the directory of data sets
+	 * @return the files, sorted by name
+	 * @throws IOException if the directory cannot be read
+	 */
+	public static List<File> dataSets(File directory) throws IOException {
+		try (Stream<Path> paths = Files.list(directory.toPath())) {
+			return paths.filter(Files::isRegularFile)
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Runs the program on every data set and returns when all runs have finished
+	 * @param dataSets the files holding the data sets
+	 * @param results called once for each data set, in the order they finish.
+	 * The calls are never made at the same time.
+	 */
+	public void run(List<File> dataSets, Consumer<BatchResult> results) {
+		runner.run(dataSets, this::runOne, results);
+	}
+
+	/**
+	 * Runs the program on one data set with a machine from the pool
+	 * @param dataSet the file holding the data set
+	 * @return the result of the run, which has no RunResult if the data set
+	 * could not be loaded
+	 */
+	public BatchResult runOne(File dataSet) {
+		long start = System.nanoTime();
+		FastInterpreter engine = idle.poll();
+		if(engine == null) {
+			engine = new FastInterpreter(new MachineModel(), program);
+		}
+		MachineModel model = engine.getModel();
+		try {
+			model.reset();
+			String loaded = Loader.loadData(model, dataSet);
+			RunResult run = null;
+			if("success".equals(loaded)) {
+				model.setRunning(true);
+				run = engine.run(runner.getMaxSteps());
+			}
+			return new BatchResult(dataSet, loaded, run, model.getAccumulator(),
+					model.getMemory().checksum(), System.nanoTime() - start);
+		} finally {
+			idle.add(engine);
+		}
+	}
+
+	/**
+	 * Runs a program on every data set in a directory, printing a line for each
+	 * run as it finishes and then the aggregate table
+	 * @param args the executable, the directory of data sets and optionally the
+	 * step limit for each run
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("usage: DataSweep program.pexe dataDirectory [maxSteps]");
+			return;
+		}
+		ProgramImage image;
+		try {
+			image = Loader.loadImage(new File(args[0]));
+		} catch (IllegalArgumentException e) {
+			System.out.println(args[0] + " " + e.getMessage());
+			return;
+		}
+		long maxSteps = args.length > 2 ? Long.parseLong(args[2]) : BatchRunner.DEFAULT_MAX_STEPS;
+		BatchRunner runner = new BatchRunner(maxSteps);
+		SweepTable table = new SweepTable();
+		long start = System.nanoTime();
+		new DataSweep(image, runner).run(dataSets(new File(args[1])), result -> {
+			System.out.println(result);
+			table.accept(result);
+		});
+		runner.shutdown();
+		long time = System.nanoTime() - start;
+		System.out.print(table);
+		System.out.println(table.getCount() * 1_000_000_000L / Math.max(time, 1) + " runs per second");
+	}
+}
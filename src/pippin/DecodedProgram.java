@@ -0,0 +1,124 @@
+package pippin;
+
+/**
+ * Predecoded form of a program, produced once when the program is loaded so that
+ * an engine does not have to unpack the op and arg of every instruction it
+ * executes. The ops and args are kept in two parallel int arrays indexed by the
+ * program counter. Subtracting an immediate is resolved to adding its negation
+ * and opcodes that are not in the instruction set are resolved to ILLEGAL.
+ * <p>
+ * Common sequences are fused into superinstructions that do the work of two or
+ * three instructions in a single dispatch. A superinstruction only replaces the
+ * op at the start of the sequence: the instructions after it keep their own
+ * decoded ops, so a jump into the middle of a fused sequence (including an
+ * indirect jump through memory, whose target cannot be known when decoding)
+ * still executes correctly. A superinstruction reads the args of the
+ * instructions it covers from the args array.
+ */
+public class DecodedProgram {
+	// Fused ops are numbered after the last Pippin opcode, HALT = 0x1F
+	static final int FIRST_FUSED = 0x20;
+	/** the most instructions covered by one superinstruction */
+	static final int MAX_FUSED_LENGTH = 3;
+	/** LOD x; ADDI k (or SUBI k); STO y */
+	static final int LOD_ADDI_STO = 0x20;
+	/** CMPL x; NOT; JMZI t, a jump taken when the value at x is negative */
+	static final int CMPL_NOT_JMZI = 0x21;
+	/** CMPZ x; NOT; JMZI t, a jump taken when the value at x is zero */
+	static final int CMPZ_NOT_JMZI = 0x22;
+	/** LODN x; STON y */
+	static final int LODN_STON = 0x23;
+	/** STO x; LOD y */
+	static final int STO_LOD = 0x24;
+	/** any opcode that is not in the InstructionSet */
+	static final int ILLEGAL = 0x25;
+
+	private final int[] ops;
+	private final int[] units;
+	private final int[] args;
+	private final int size;
+	private int fusedCount;
+
+	private DecodedProgram(int size) {
+		this.size = size;
+		ops = new int[size];
+		units = new int[size];
+		args = new int[size];
+	}
+
+	/**
+	 * Decodes the program stored in code, resolving the immediate subtractions and
+	 * the illegal opcodes and then fusing the superinstruction sequences.
+	 * @param code the program to decode
+	 * @return the decoded program
+	 */
+	public static DecodedProgram decode(Code code) {
+		DecodedProgram program = new DecodedProgram(code.getProgramSize());
+		int[] ops = program.ops;
+		int[] args = program.args;
+		for(int i = 0; i < program.size; i++) {
+			int op = code.getOp(i);
+			int arg = code.getArg(i);
+			if(op == 0xD) { // SUBI k is ADDI -k, including the overflow
+				op = 0xA;
+				arg = -arg;
+			} else if(!InstructionSet.isDefined(op)) {
+				op = ILLEGAL;
+			}
+			ops[i] = op;
+			program.units[i] = op;
+			args[i] = arg;
+		}
+		for(int i = 0; i < program.size; i++) {
+			int fused = program.fuse(i);
+			if(fused != ops[i]) {
+				ops[i] = fused;
+				program.fusedCount++;
+			}
+		}
+		return program;
+	}
+
+	// Looks at the unfused ops that start at i, which fuse() never changes
+	// for the positions after i, and returns the op to use at i
+	private int fuse(int i) {
+		int op = ops[i];
+		int next = (i + 1 < size) ? ops[i + 1] : -1;
+		int third = (i + 2 < size) ? ops[i + 2] : -1;
+		if(op == 0x2 && next == 0xA && third == 0x4) return LOD_ADDI_STO;
+		if(op == 0x19 && next == 0x18 && third == 0x8) return CMPL_NOT_JMZI;
+		if(op == 0x1A && next == 0x18 && third == 0x8) return CMPZ_NOT_JMZI;
+		if(op == 0x3 && next == 0x5) return LODN_STON;
+		if(op == 0x4 && next == 0x2) return STO_LOD;
+		return op;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * The number of superinstructions in the decoded program
+	 * @return the number of positions where a sequence was fused
+	 */
+	public int getFusedCount() {
+		return fusedCount;
+	}
+
+	int[] getOps() {
+		return ops;
+	}
+
+	/**
+	 * The decoded ops before fusing, for an engine that has to stop part of the
+	 * way through a fused sequence
+	 * @return the op of each single instruction
+	 */
+	int[] getUnits() {
+		return units;
+	}
+
+	int[] getArgs() {
+		return args;
+	}
+}
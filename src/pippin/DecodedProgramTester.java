@@ -0,0 +1,144 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class DecodedProgramTester {
+
+	// A countdown loop with every superinstruction in it: STO_LOD at 1 and 9,
+	// LOD_ADDI_STO at 2, LODN_STON at 7, CMPZ_NOT_JMZI at B and CMPL_NOT_JMZI at E
+	private static final int[][] FUSED = {{0x1, 5}, {0x4, 0}, {0x2, 0}, {0xD, 1}, {0x4, 0},
+			{0x1, 3}, {0x4, 1}, {0x3, 1}, {0x5, 2}, {0x4, 5}, {0x2, 0}, {0x1A, 0}, {0x18, 0},
+			{0x8, 0x13}, {0x19, 0}, {0x18, 0}, {0x8, 0x13}, {0x6, 2}, {0x0, 0}, {0x1F, 0}};
+
+	private MachineModel image(int[][] program) {
+		MachineModel image = new MachineModel(true);
+		for(int[] instruction : program) {
+			image.setCode(instruction[0], instruction[1]);
+		}
+		image.setData(2, 4);
+		image.setData(3, 7);
+		return image;
+	}
+
+	// A running copy of the program and data of the image
+	private MachineModel load(MachineModel image) {
+		MachineModel machine = new MachineModel(true);
+		for(int i = 0; i < image.getCode().getProgramSize(); i++) {
+			machine.setCode(image.getCode().getOp(i), image.getCode().getArg(i));
+		}
+		int[] data = image.getData();
+		for(int i = 0; i < data.length; i++) {
+			if(data[i] != 0) machine.setData(i, data[i]);
+		}
+		machine.setRunning(true);
+		return machine;
+	}
+
+	// Runs the image one step at a time with the instruction map, for at most
+	// maxSteps steps
+	private MachineModel stepThrough(MachineModel image, long maxSteps) {
+		MachineModel machine = load(image);
+		for(long i = 0; i < maxSteps && machine.isRunning(); i++) {
+			machine.step();
+		}
+		return machine;
+	}
+
+	private long countSteps(MachineModel image) {
+		MachineModel machine = load(image);
+		long steps = 0;
+		while(machine.isRunning()) {
+			machine.step();
+			steps++;
+		}
+		return steps;
+	}
+
+	private void assertSameState(MachineModel expected, MachineModel actual) {
+		assertArrayEquals(expected.getData(), actual.getData());
+		assertEquals("Accumulator", expected.getAccumulator(), actual.getAccumulator());
+		assertEquals("Program counter", expected.getProgramCounter(), actual.getProgramCounter());
+		assertEquals("Changed index", expected.getChangedIndex(), actual.getChangedIndex());
+	}
+
+	// Stops the fast engine after every possible number of steps, so that the
+	// budget runs out at every position of every fused sequence
+	private void compareEveryBudget(MachineModel image) {
+		long total = countSteps(image);
+		for(long budget = 0; budget <= total; budget++) {
+			MachineModel expected = stepThrough(image, budget);
+			MachineModel actual = load(image);
+			RunResult result = actual.run(budget);
+			assertEquals("Steps", budget, result.getSteps());
+			assertEquals(budget == total ? HaltReason.HALT : HaltReason.STEP_LIMIT, result.getReason());
+			assertSameState(expected, actual);
+		}
+	}
+
+	@Test
+	public void testFusion() {
+		DecodedProgram program = DecodedProgram.decode(image(FUSED).getCode());
+		assertEquals(6, program.getFusedCount());
+		int[] ops = program.getOps();
+		assertEquals(DecodedProgram.STO_LOD, ops[0x1]);
+		assertEquals(DecodedProgram.LOD_ADDI_STO, ops[0x2]);
+		assertEquals(DecodedProgram.LODN_STON, ops[0x7]);
+		assertEquals(DecodedProgram.STO_LOD, ops[0x9]);
+		assertEquals(DecodedProgram.CMPZ_NOT_JMZI, ops[0xB]);
+		assertEquals(DecodedProgram.CMPL_NOT_JMZI, ops[0xE]);
+		// the instructions inside a sequence keep their own ops
+		assertEquals(0xA, ops[0x3]);
+		assertEquals(-1, program.getArgs()[0x3]);
+		assertEquals(0x18, ops[0xC]);
+		int[] units = program.getUnits();
+		assertEquals(0x4, units[0x1]);
+		assertEquals(0x2, units[0x2]);
+		assertEquals(0x3, units[0x7]);
+		assertEquals(0x1A, units[0xB]);
+		assertEquals(0x19, units[0xE]);
+	}
+
+	@Test
+	public void testUnfusedEquivalence() {
+		MachineModel image = image(FUSED);
+		MachineModel expected = stepThrough(image, Long.MAX_VALUE);
+		MachineModel actual = load(image);
+		FastInterpreter engine = new FastInterpreter(actual);
+		RunResult result = engine.run(Long.MAX_VALUE);
+		assertEquals(HaltReason.HALT, result.getReason());
+		assertEquals("Steps", countSteps(image), result.getSteps());
+		assertEquals(7, actual.getData(4));
+		assertSameState(expected, actual);
+	}
+
+	@Test
+	// the budget runs out inside a fused sequence, so the engine must fall back
+	// to the single instructions for the last steps
+	public void testStepLimitFallback() {
+		compareEveryBudget(image(FUSED));
+	}
+
+	@Test
+	public void testStepLimitFallbackFactorial() {
+		MachineModel image = new MachineModel(true);
+		assertEquals("success", Loader.load(image, new File("test/factorial8.pexe")));
+		compareEveryBudget(image);
+	}
+
+	@Test
+	// a jump to the NOT of CMPZ; NOT; JMZI runs the rest of the sequence unfused
+	public void testJumpIntoSequence() {
+		MachineModel image = image(new int[][] {{0x1, 0}, {0x6, 3}, {0x1A, 0}, {0x18, 0},
+				{0x8, 6}, {0x4, 1}, {0x1F, 0}});
+		MachineModel expected = stepThrough(image, Long.MAX_VALUE);
+		MachineModel actual = load(image);
+		assertEquals(HaltReason.HALT, actual.run(Long.MAX_VALUE).getReason());
+		assertEquals(1, actual.getData(1));
+		assertSameState(expected, actual);
+	}
+}
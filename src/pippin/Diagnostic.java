@@ -0,0 +1,31 @@
+package pippin;
+
+/**
+ * An error found by the Assembler, with the line of the source it was found on
+ */
+public final class Diagnostic {
+	private final int line;
+	private final String message;
+
+	public Diagnostic(int line, String message) {
+		this.line = line;
+		this.message = message;
+	}
+
+	/**
+	 * The line of the source
+	 * @return the line number, starting at 1
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return message;
+	}
+}
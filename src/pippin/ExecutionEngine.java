@@ -0,0 +1,34 @@
+package pippin;
+
+/**
+ * An engine that runs the program loaded in a MachineModel as an alternative to
+ * calling MachineModel.step() one instruction at a time. Every engine produces the
+ * same memory and register results as stepping the model.
+ */
+public interface ExecutionEngine {
+
+	/**
+	 * Runs the program from the current program counter until a HALT instruction
+	 * is executed, then stops the model. If the program fails, the registers are
+	 * left pointing at the failing instruction, the model is stopped and the
+	 * exception is rethrown.
+	 */
+	void execute();
+
+	/**
+	 * Runs the program from the current program counter until a HALT instruction
+	 * is executed, the program fails or maxSteps instructions have been retired.
+	 * A failure is reported in the result instead of being thrown. The model is
+	 * stopped unless the step limit was reached, in which case the run can be
+	 * continued by calling run again.
+	 * @param maxSteps the most instructions to retire
+	 * @return the reason the run stopped, with the steps retired and the time taken
+	 */
+	RunResult run(long maxSteps);
+
+	/**
+	 * The number of Pippin instructions retired by this engine
+	 * @return the count of instructions executed without an error
+	 */
+	long getSteps();
+}
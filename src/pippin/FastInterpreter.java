@@ -0,0 +1,389 @@
+package pippin;
+
+import java.io.File;
+
+/**
+ * Execution engine that runs the program loaded in a MachineModel in one loop
+ * instead of calling MachineModel.step() for each instruction. The program is predecoded into a DecodedProgram
+ * when the engine is created, the accumulator and program counter are kept in
+ * local variables and each op is dispatched by a dense switch, so the indirect
+ * addressing modes are plain memory reads instead of a chain of map lookups on
+ * boxed keys, and the common sequences run as superinstructions. The memory and
+ * register results are the same as calling MachineModel.step() until the
+ * program halts.
+ * <p>
+ * Every address is checked before it is used, so a run time error is recorded
+ * in the fault register of the model without an exception being allocated.
+ */
+public class FastInterpreter implements ExecutionEngine {
+	private MachineModel model;
+	private DecodedProgram program;
+	private long steps;
+	private long dispatches;
+
+	public FastInterpreter(MachineModel model) {
+		if(model == null) throw new IllegalArgumentException("Coding error: the model is null");
+		this.model = model;
+		program = DecodedProgram.decode(model.getCode());
+	}
+
+	/**
+	 * Creates an engine for a program that was decoded already, so that many
+	 * models can run the same program without decoding it again. A
+	 * DecodedProgram is never changed after it is decoded, so it can be shared
+	 * by engines on different threads.
+	 * @param model the model holding the memory and registers to run on
+	 * @param program the decoded program, which replaces the code of the model
+	 */
+	public FastInterpreter(MachineModel model, DecodedProgram program) {
+		if(model == null) throw new IllegalArgumentException("Coding error: the model is null");
+		if(program == null) throw new IllegalArgumentException("Coding error: the program is null");
+		this.model = model;
+		this.program = program;
+	}
+
+	MachineModel getModel() {
+		return model;
+	}
+
+	DecodedProgram getProgram() {
+		return program;
+	}
+
+	/**
+	 * The number of Pippin instructions retired by this engine
+	 * @return the count of instructions, where a superinstruction counts
+	 * every instruction it covers
+	 */
+	@Override
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * The number of times this engine went through its dispatch switch
+	 * @return the count of dispatches
+	 */
+	public long getDispatches() {
+		return dispatches;
+	}
+
+	/**
+	 * Runs the loaded program from the current program counter until a HALT
+	 * instruction is executed. The registers of the model are updated when the
+	 * method returns. If the program fails, the registers are left pointing at the
+	 * failing instruction, the model is stopped and the exception is thrown,
+	 * as MachineModel.step() does.
+	 */
+	@Override
+	public void execute() {
+		RunResult result = run(Long.MAX_VALUE);
+		if(result.getFault() != Fault.NONE) {
+			throw result.getFault().toException(result.getFaultProgramCounter());
+		}
+	}
+
+	/**
+	 * Runs the loaded program from the current program counter until a HALT
+	 * instruction is executed, the program fails or maxSteps instructions have
+	 * been retired. The registers and the fault register of the model are updated
+	 * when the method returns and the model is stopped unless the step limit was
+	 * reached. A superinstruction is only used when the whole sequence fits in the
+	 * steps that are left, so the run stops after exactly maxSteps instructions.
+	 * @param maxSteps the most instructions to retire
+	 * @return the reason the run stopped, with the steps retired and the time taken
+	 */
+	@Override
+	public RunResult run(long maxSteps) {
+		int[] ops = program.getOps();
+		int[] units = program.getUnits();
+		int[] args = program.getArgs();
+		int size = program.getSize();
+		Memory memory = model.getMemory();
+		int acc = model.getAccumulator();
+		int pc = model.getProgramCounter();
+		long retired = 0;
+		long dispatched = 0;
+		// every break out of the loop that does not say otherwise
+		// is a failed check on an address
+		HaltReason reason = HaltReason.FAULT;
+		Fault fault = Fault.DATA_ACCESS;
+		long start = System.nanoTime();
+
+		loop:
+		while(true) {
+			if(retired >= maxSteps) {
+				reason = HaltReason.STEP_LIMIT;
+				fault = Fault.NONE;
+				break;
+			}
+			if(pc < 0 || pc >= size) {
+				fault = Fault.CODE_ACCESS;
+				break;
+			}
+			int op = ops[pc];
+			if(op >= DecodedProgram.FIRST_FUSED
+					&& maxSteps - retired < DecodedProgram.MAX_FUSED_LENGTH) {
+				op = units[pc];
+			}
+			int arg = args[pc];
+			int address;
+			Fault copied;
+			dispatched++;
+			switch(op) {
+			case 0x0: // NOP
+				pc++;
+				break;
+			case 0x1: // LODI
+				acc = arg;
+				pc++;
+				break;
+			case 0x2: // LOD
+				if(!memory.contains(arg)) break loop;
+				acc = memory.getData(arg);
+				pc++;
+				break;
+			case 0x3: // LODN
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg);
+				if(!memory.contains(address)) break loop;
+				acc = memory.getData(address);
+				pc++;
+				break;
+			case 0x4: // STO
+				if(!memory.contains(arg)) break loop;
+				memory.setData(arg, acc);
+				pc++;
+				break;
+			case 0x5: // STON
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg);
+				if(!memory.contains(address)) break loop;
+				memory.setData(address, acc);
+				pc++;
+				break;
+			case 0x6: // JMPI
+				pc = arg;
+				break;
+			case 0x7: // JUMP
+				if(!memory.contains(arg)) break loop;
+				pc = memory.getData(arg);
+				break;
+			case 0x8: // JMZI
+				if(acc == 0) pc = arg;
+				else pc++;
+				break;
+			case 0x9: // JMPZ, which reads the target even when the jump is not taken
+				if(!memory.contains(arg)) break loop;
+				if(acc == 0) pc = memory.getData(arg);
+				else pc++;
+				break;
+			case 0xA: // ADDI, and SUBI with the arg negated
+				acc += arg;
+				pc++;
+				break;
+			case 0xB: // ADD
+				if(!memory.contains(arg)) break loop;
+				acc += memory.getData(arg);
+				pc++;
+				break;
+			case 0xC: // ADDN
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg);
+				if(!memory.contains(address)) break loop;
+				acc += memory.getData(address);
+				pc++;
+				break;
+			case 0xE: // SUB
+				if(!memory.contains(arg)) break loop;
+				acc -= memory.getData(arg);
+				pc++;
+				break;
+			case 0xF: // SUBN
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg);
+				if(!memory.contains(address)) break loop;
+				acc -= memory.getData(address);
+				pc++;
+				break;
+			case 0x10: // MULI
+				acc *= arg;
+				pc++;
+				break;
+			case 0x11: // MUL
+				if(!memory.contains(arg)) break loop;
+				acc *= memory.getData(arg);
+				pc++;
+				break;
+			case 0x12: // MULN
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg);
+				if(!memory.contains(address)) break loop;
+				acc *= memory.getData(address);
+				pc++;
+				break;
+			case 0x13: // DIVI
+				if(arg == 0) {
+					fault = Fault.DIVIDE_BY_ZERO;
+					break loop;
+				}
+				acc /= arg;
+				pc++;
+				break;
+			case 0x14: // DIV
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg); // the divisor
+				if(address == 0) {
+					fault = Fault.DIVIDE_BY_ZERO;
+					break loop;
+				}
+				acc /= address;
+				pc++;
+				break;
+			case 0x15: // DIVN
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg);
+				if(!memory.contains(address)) break loop;
+				address = memory.getData(address); // the divisor
+				if(address == 0) {
+					fault = Fault.DIVIDE_BY_ZERO;
+					break loop;
+				}
+				acc /= address;
+				pc++;
+				break;
+			case 0x16: // ANDI
+				acc = (arg != 0 && acc != 0) ? 1 : 0;
+				pc++;
+				break;
+			case 0x17: // AND
+				if(!memory.contains(arg)) break loop;
+				acc = (memory.getData(arg) != 0 && acc != 0) ? 1 : 0;
+				pc++;
+				break;
+			case 0x18: // NOT
+				acc = (acc == 0) ? 1 : 0;
+				pc++;
+				break;
+			case 0x19: // CMPL
+				if(!memory.contains(arg)) break loop;
+				acc = (memory.getData(arg) < 0) ? 1 : 0;
+				pc++;
+				break;
+			case 0x1A: // CMPZ
+				if(!memory.contains(arg)) break loop;
+				acc = (memory.getData(arg) == 0) ? 1 : 0;
+				pc++;
+				break;
+			case 0x1D: // COPY
+				copied = model.copyData(arg);
+				if(copied != Fault.NONE) {
+					fault = copied;
+					break loop;
+				}
+				pc++;
+				break;
+			case 0x1E: // CPYN
+				if(!memory.contains(arg)) break loop;
+				copied = model.copyData(memory.getData(arg));
+				if(copied != Fault.NONE) {
+					fault = copied;
+					break loop;
+				}
+				pc++;
+				break;
+			case 0x1F: // HALT
+				retired++;
+				reason = HaltReason.HALT;
+				fault = Fault.NONE;
+				break loop;
+			case DecodedProgram.LOD_ADDI_STO:
+				if(!memory.contains(arg)) break loop;
+				acc = memory.getData(arg) + args[pc + 1];
+				pc += 2;
+				retired += 2;
+				address = args[pc];
+				if(!memory.contains(address)) break loop;
+				memory.setData(address, acc);
+				pc++;
+				break;
+			case DecodedProgram.CMPL_NOT_JMZI:
+				if(!memory.contains(arg)) break loop;
+				if(memory.getData(arg) < 0) {
+					acc = 0;
+					pc = args[pc + 2];
+				} else {
+					acc = 1;
+					pc += 3;
+				}
+				retired += 2;
+				break;
+			case DecodedProgram.CMPZ_NOT_JMZI:
+				if(!memory.contains(arg)) break loop;
+				if(memory.getData(arg) == 0) {
+					acc = 0;
+					pc = args[pc + 2];
+				} else {
+					acc = 1;
+					pc += 3;
+				}
+				retired += 2;
+				break;
+			case DecodedProgram.LODN_STON:
+				if(!memory.contains(arg)) break loop;
+				address = memory.getData(arg);
+				if(!memory.contains(address)) break loop;
+				acc = memory.getData(address);
+				pc++;
+				retired++;
+				if(!memory.contains(args[pc])) break loop;
+				address = memory.getData(args[pc]);
+				if(!memory.contains(address)) break loop;
+				memory.setData(address, acc);
+				pc++;
+				break;
+			case DecodedProgram.STO_LOD:
+				if(!memory.contains(arg)) break loop;
+				memory.setData(arg, acc);
+				pc++;
+				retired++;
+				if(!memory.contains(args[pc])) break loop;
+				acc = memory.getData(args[pc]);
+				pc++;
+				break;
+			default:
+				fault = Fault.ILLEGAL_INSTRUCTION;
+				break loop;
+			}
+			retired++;
+		}
+
+		model.setAccumulator(acc);
+		model.setProgramCounter(pc);
+		model.setFault(fault, fault == Fault.NONE ? -1 : pc);
+		if(reason != HaltReason.STEP_LIMIT) {
+			model.setRunning(false);
+		}
+		steps += retired;
+		dispatches += dispatched;
+		return new RunResult(reason, retired, System.nanoTime() - start,
+				fault, model.getFaultProgramCounter());
+	}
+
+	/**
+	 * Runs an executable and reports how many instructions were retired for each
+	 * dispatch, which shows the effect of the superinstructions
+	 * @param args the name of the executable file
+	 */
+	public static void main(String[] args) {
+		MachineModel m = new MachineModel(true);
+		System.out.println(Loader.load(m, new File(args.length > 0 ? args[0] : "qsort.pexe")));
+		FastInterpreter engine = new FastInterpreter(m);
+		long start = System.nanoTime();
+		engine.execute();
+		long time = System.nanoTime() - start;
+		System.out.println(engine.getSteps() + " steps, " + engine.getDispatches()
+				+ " dispatches, " + (double)engine.getSteps()/engine.getDispatches()
+				+ " steps per dispatch, " + time/1000 + " microseconds");
+	}
+}
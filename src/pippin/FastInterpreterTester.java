@@ -0,0 +1,193 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class FastInterpreterTester {
+
+	// Runs the file one step at a time with the instruction map,
+	// which is the reference the fast engine is checked against
+	private MachineModel stepThrough(String fileName) {
+		MachineModel machine = new MachineModel(true);
+		assertEquals("success", Loader.load(machine, new File(fileName)));
+		machine.setRunning(true);
+		while(machine.isRunning()) {
+			machine.step();
+		}
+		return machine;
+	}
+
+	private MachineModel runFast(String fileName) {
+		MachineModel machine = new MachineModel(true);
+		assertEquals("success", Loader.load(machine, new File(fileName)));
+		machine.setRunning(true);
+		new FastInterpreter(machine).execute();
+		return machine;
+	}
+
+	private void compare(String fileName) {
+		MachineModel expected = stepThrough(fileName);
+		MachineModel actual = runFast(fileName);
+		assertArrayEquals(expected.getData(), actual.getData());
+		assertEquals("Accumulator", expected.getAccumulator(), actual.getAccumulator());
+		assertEquals("Program counter", expected.getProgramCounter(),
+				actual.getProgramCounter());
+		assertEquals("Changed index", expected.getChangedIndex(),
+				actual.getChangedIndex());
+	}
+
+	@Test
+	public void testFactorial() {
+		compare("test/factorial8.pexe");
+	}
+
+	@Test
+	public void testFactorialIndirect() {
+		compare("test/factorialindirect7.pexe");
+	}
+
+	@Test
+	public void testMerge() {
+		compare("test/merge.pexe");
+	}
+
+	@Test
+	public void testQsort() {
+		compare("test/qsort.pexe");
+	}
+
+	@Test(expected=DivideByZeroException.class)
+	// 31r.pexe divides by a zero that is stored in memory
+	public void testDivideByZero() {
+		runFast("test/31r.pexe");
+	}
+
+	@Test(expected=CodeAccessException.class)
+	// 29r.pexe runs off the end of the code without a HALT
+	public void testCodeAccess() {
+		runFast("test/29r.pexe");
+	}
+
+	@Test(expected=ArrayIndexOutOfBoundsException.class)
+	// 30r.pexe stores outside the data memory
+	public void testMemoryAccess() {
+		runFast("test/30r.pexe");
+	}
+
+	@Test
+	// run must halt without exiting the JVM, even for a model without a GUI
+	public void testRunHalts() {
+		MachineModel expected = stepThrough("test/merge.pexe");
+		MachineModel machine = new MachineModel();
+		Loader.load(machine, new File("test/merge.pexe"));
+		RunResult result = machine.run(Long.MAX_VALUE);
+		assertEquals(HaltReason.HALT, result.getReason());
+		assertEquals("Steps", 19701, result.getSteps());
+		assertArrayEquals(expected.getData(), machine.getData());
+	}
+
+	@Test
+	// a run that is stopped by its budget can be continued
+	public void testRunStepLimit() {
+		MachineModel expected = stepThrough("test/qsort.pexe");
+		MachineModel machine = new MachineModel();
+		Loader.load(machine, new File("test/qsort.pexe"));
+		machine.setRunning(true);
+		RunResult result = machine.run(1000);
+		assertEquals(HaltReason.STEP_LIMIT, result.getReason());
+		assertEquals("Steps", 1000, result.getSteps());
+		assertTrue(machine.isRunning());
+		result = machine.run(Long.MAX_VALUE);
+		assertEquals(HaltReason.HALT, result.getReason());
+		assertEquals("Steps", 10390 - 1000, result.getSteps());
+		assertArrayEquals(expected.getData(), machine.getData());
+	}
+
+	@Test
+	public void testRunFault() {
+		MachineModel machine = new MachineModel();
+		Loader.load(machine, new File("test/31r.pexe"));
+		RunResult result = machine.run(Long.MAX_VALUE);
+		assertEquals(HaltReason.FAULT, result.getReason());
+		assertEquals(Fault.DIVIDE_BY_ZERO, result.getFault());
+		assertEquals("Fault program counter", 5, result.getFaultProgramCounter());
+		assertEquals(Fault.DIVIDE_BY_ZERO, machine.getFault());
+		assertEquals("Program counter", 5, machine.getProgramCounter());
+	}
+
+	@Test
+	// a fork runs on from the state of its parent without changing it
+	public void testFork() {
+		MachineModel expected = stepThrough("test/qsort.pexe");
+		MachineModel parent = new MachineModel();
+		Loader.load(parent, new File("test/qsort.pexe"));
+		parent.setRunning(true);
+		parent.run(5000);
+		int[] middle = parent.getData();
+		MachineModel child = parent.fork();
+		assertEquals(Memory.DATA_SIZE / Memory.PAGE_SIZE, child.getMemory().getSharedPageCount());
+		assertEquals(HaltReason.HALT, child.run(Long.MAX_VALUE).getReason());
+		assertArrayEquals(expected.getData(), child.getData());
+		assertArrayEquals(middle, parent.getData());
+		assertEquals(HaltReason.HALT, parent.run(Long.MAX_VALUE).getReason());
+		assertArrayEquals(expected.getData(), parent.getData());
+	}
+
+	@Test
+	// JMPZ reads its target from memory even when the jump is not taken,
+	// so a bad address faults as it does in step()
+	public void testJumpIfZeroReadsTarget() {
+		MachineModel machine = new MachineModel();
+		machine.setCode(0x1, 1); // LODI 1
+		machine.setCode(0x9, Memory.DATA_SIZE); // JMPZ outside the memory
+		machine.setCode(0x1F, 0); // HALT
+		RunResult result = new FastInterpreter(machine).run(Long.MAX_VALUE);
+		assertEquals(HaltReason.FAULT, result.getReason());
+		assertEquals(Fault.DATA_ACCESS, result.getFault());
+		assertEquals("Fault program counter", 1, result.getFaultProgramCounter());
+
+		machine = new MachineModel();
+		machine.setCode(0x1, 1); // LODI 1
+		machine.setCode(0x9, 0); // JMPZ 0, not taken
+		machine.setCode(0x1F, 0); // HALT
+		result = new FastInterpreter(machine).run(Long.MAX_VALUE);
+		assertEquals(HaltReason.HALT, result.getReason());
+		assertEquals("Steps", 3, result.getSteps());
+	}
+
+	@Test
+	// an undefined opcode throws the exception of its fault from every engine
+	public void testIllegalInstruction() {
+		MachineModel machine = new MachineModel(true);
+		machine.setCode(0x1, 1); // LODI 1
+		machine.setCode(0x1B, 0); // not an instruction
+		machine.setCode(0x1F, 0); // HALT
+		machine.setRunning(true);
+		machine.step();
+		try {
+			machine.step();
+			fail("step ran an undefined opcode");
+		} catch(CodeAccessException e) {
+			assertEquals(1, machine.getProgramCounter());
+		}
+		try {
+			InstructionSet.execute(machine.getState(), 0x1B, 0);
+			fail("execute ran an undefined opcode");
+		} catch(CodeAccessException e) {
+		}
+		RunResult result = new FastInterpreter(machine).run(Long.MAX_VALUE);
+		assertEquals(HaltReason.FAULT, result.getReason());
+		assertEquals(Fault.ILLEGAL_INSTRUCTION, result.getFault());
+		assertEquals("Fault program counter", 1, result.getFaultProgramCounter());
+		assertTrue(result.getFault().toException(1) instanceof CodeAccessException);
+		result = JitCompiler.compile(machine).run(Long.MAX_VALUE);
+		assertEquals(Fault.ILLEGAL_INSTRUCTION, result.getFault());
+		assertEquals("Fault program counter", 1, result.getFaultProgramCounter());
+	}
+}
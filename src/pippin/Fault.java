@@ -0,0 +1,51 @@
+package pippin;
+
+/**
+ * The run time errors a program can make. Engines record a fault in the fault
+ * register of the model, together with the line that made it, instead of
+ * allocating an exception, so that a run ending in a fault costs no more than
+ * a run ending in HALT. The exception that MachineModel.step() would have thrown
+ * can still be made from the fault when a caller wants one.
+ */
+public enum Fault {
+	NONE("No fault"),
+	CODE_ACCESS("Attempt to access code outside its bounds"),
+	ILLEGAL_INSTRUCTION("Attempt to execute an illegal instruction"),
+	DATA_ACCESS("Attempt to access data outside the memory"),
+	DIVIDE_BY_ZERO("Attempt to divide by zero"),
+	COPY_OVERLAP("The instruction would corrupt arg."),
+	COPY_RANGE("The source range or target range is outside the range of memory addresses.");
+
+	private String message;
+
+	private Fault(String message) {
+		this.message = message;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Makes the exception that stepping the model would have thrown for this fault
+	 * @param programCounter the line that made the fault
+	 * @return the exception, or null for NONE
+	 */
+	public RuntimeException toException(int programCounter) {
+		String text = message + " on line " + programCounter;
+		switch(this) {
+		case CODE_ACCESS:
+		case ILLEGAL_INSTRUCTION:
+			return new CodeAccessException(text);
+		case DATA_ACCESS:
+			return new ArrayIndexOutOfBoundsException(text);
+		case DIVIDE_BY_ZERO:
+			return new DivideByZeroException(text);
+		case COPY_OVERLAP:
+		case COPY_RANGE:
+			return new IllegalArgumentException(text);
+		default:
+			return null;
+		}
+	}
+}
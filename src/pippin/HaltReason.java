@@ -0,0 +1,13 @@
+package pippin;
+
+/**
+ * The reason a bounded run of a program stopped
+ */
+public enum HaltReason {
+	/** a HALT instruction was executed */
+	HALT,
+	/** the step budget of the run was used up before the program halted */
+	STEP_LIMIT,
+	/** the program failed with a run time error */
+	FAULT
+}
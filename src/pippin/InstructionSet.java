@@ -0,0 +1,221 @@
+package pippin;
+
+/**
+ * The semantics of the Pippin instructions, written once as static code over a
+ * MachineState. The instructions keep no state of their own, so every machine
+ * shares them and creating a machine no longer builds a map of lambdas. The
+ * instructions throw the same exceptions the map entries of MachineModel did:
+ * ArrayIndexOutOfBoundsException for an address outside memory,
+ * DivideByZeroException and IllegalArgumentException for a bad COPY.
+ */
+public final class InstructionSet {
+	public static final int HALT = 0x1F;
+
+	private InstructionSet() {
+	}
+
+	/**
+	 * Checks that an opcode is one of the instructions
+	 * @param op the opcode
+	 * @return true if op is in InstructionMap
+	 */
+	public static boolean isDefined(int op) {
+		return (op >= 0 && op <= 0x1A) || (op >= 0x1D && op <= HALT);
+	}
+
+	/**
+	 * Executes one instruction on the state
+	 * @param state the registers and memory to change
+	 * @param op the opcode, which must be defined
+	 * @param arg the arg of the instruction
+	 * @return false if the instruction was HALT, which leaves the state unchanged
+	 * @throws CodeAccessException if the opcode is not defined, the exception
+	 * Fault.ILLEGAL_INSTRUCTION makes
+	 */
+	public static boolean execute(MachineState state, int op, int arg) {
+		Memory memory = state.getMemory();
+		switch(op) {
+		case 0x0: // NOP
+			break;
+		case 0x1: // LODI
+			state.accumulator = arg;
+			break;
+		case 0x2: // LOD
+			state.accumulator = memory.getData(arg);
+			break;
+		case 0x3: // LODN
+			state.accumulator = memory.getData(memory.getData(arg));
+			break;
+		case 0x4: // STO
+			memory.setData(arg, state.accumulator);
+			break;
+		case 0x5: // STON
+			memory.setData(memory.getData(arg), state.accumulator);
+			break;
+		case 0x6: // JMPI
+			state.programCounter = arg;
+			return true;
+		case 0x7: // JUMP
+			state.programCounter = memory.getData(arg);
+			return true;
+		case 0x8: // JMZI
+			jumpIfZero(state, arg);
+			return true;
+		case 0x9: // JMPZ, which reads the target even when the jump is not taken
+			jumpIfZero(state, memory.getData(arg));
+			return true;
+		case 0xA: // ADDI
+			state.accumulator += arg;
+			break;
+		case 0xB: // ADD
+			state.accumulator += memory.getData(arg);
+			break;
+		case 0xC: // ADDN
+			state.accumulator += memory.getData(memory.getData(arg));
+			break;
+		case 0xD: // SUBI
+			state.accumulator -= arg;
+			break;
+		case 0xE: // SUB
+			state.accumulator -= memory.getData(arg);
+			break;
+		case 0xF: // SUBN
+			state.accumulator -= memory.getData(memory.getData(arg));
+			break;
+		case 0x10: // MULI
+			state.accumulator *= arg;
+			break;
+		case 0x11: // MUL
+			state.accumulator *= memory.getData(arg);
+			break;
+		case 0x12: // MULN
+			state.accumulator *= memory.getData(memory.getData(arg));
+			break;
+		case 0x13: // DIVI
+			divide(state, arg);
+			break;
+		case 0x14: // DIV
+			divide(state, memory.getData(arg));
+			break;
+		case 0x15: // DIVN
+			divide(state, memory.getData(memory.getData(arg)));
+			break;
+		case 0x16: // ANDI
+			state.accumulator = (arg != 0 && state.accumulator != 0) ? 1 : 0;
+			break;
+		case 0x17: // AND
+			state.accumulator = (memory.getData(arg) != 0 && state.accumulator != 0) ? 1 : 0;
+			break;
+		case 0x18: // NOT
+			state.accumulator = (state.accumulator == 0) ? 1 : 0;
+			break;
+		case 0x19: // CMPL
+			state.accumulator = (memory.getData(arg) < 0) ? 1 : 0;
+			break;
+		case 0x1A: // CMPZ
+			state.accumulator = (memory.getData(arg) == 0) ? 1 : 0;
+			break;
+		case 0x1D: // COPY
+			copy(memory, arg);
+			break;
+		case 0x1E: // CPYN
+			copy(memory, memory.getData(arg));
+			break;
+		case HALT:
+			return false;
+		default:
+			throw new CodeAccessException("Attempt to execute an illegal instruction " + op);
+		}
+		state.programCounter++;
+		return true;
+	}
+
+	private static void jumpIfZero(MachineState state, int target) {
+		if(state.accumulator == 0) state.programCounter = target;
+		else state.programCounter++;
+	}
+
+	private static void divide(MachineState state, int divisor) {
+		if(divisor == 0) throw new DivideByZeroException();
+		state.accumulator /= divisor;
+	}
+
+	/**
+	 * Copies from one part of data memory to another, allowing for the source and target
+	 * locations to overlap. Takes values in memory in source range and copies them to
+	 * memory locations specified in target range. The exception IllegalArgumentException
+	 * is thrown if the source or target range of locations includes the indices arg thru
+	 * arg+2, or if the source range or target ranges go out of the memory addresses.
+	 * @param memory the memory to copy in
+	 * @param arg the initial memory location to look at, contains value for source, allows
+	 * code to look up value for target location and length as well
+	 */
+	public static void copy(Memory memory, int arg) {
+		// reading the arguments first throws the exception for a bad arg
+		memory.getData(arg);
+		memory.getData(arg + 1);
+		memory.getData(arg + 2);
+		Fault fault = copyData(memory, arg);
+		if(fault != Fault.NONE) {
+			throw new IllegalArgumentException(fault.getMessage());
+		}
+	}
+
+	/**
+	 * Does the work of copy without throwing, for the engines that record
+	 * faults instead of allocating exceptions. Nothing is copied if there is
+	 * a fault.
+	 * @param memory the memory to copy in
+	 * @param arg the initial memory location to look at
+	 * @return DATA_ACCESS if arg thru arg+2 are not all in memory, COPY_OVERLAP or
+	 * COPY_RANGE where copy throws IllegalArgumentException, otherwise NONE
+	 */
+	static Fault copyData(Memory memory, int arg) {
+		if(!memory.contains(arg) || !memory.contains(arg + 1) || !memory.contains(arg + 2)) {
+			return Fault.DATA_ACCESS;
+		}
+		int source = memory.getData(arg);
+		int target = memory.getData(arg + 1);
+		int length = memory.getData(arg + 2);
+
+		// The addresses are unsigned and the ranges end before source + length
+		// and target + length, which is worked out in long so that a range near
+		// the top of a sparse memory neither wraps nor changes direction
+		long sourceStart = Integer.toUnsignedLong(source);
+		long targetStart = Integer.toUnsignedLong(target);
+		long sourceEnd = sourceStart + length;
+		long targetEnd = targetStart + length;
+
+		for (int i = 0; i < 3; i++) {
+			long address = Integer.toUnsignedLong(arg + i);
+			if ((address >= sourceStart && address < sourceEnd) ||
+					(address >= targetStart && address < targetEnd)) {
+				return Fault.COPY_OVERLAP;
+			}
+		}
+
+		// source + length and target + length must be addresses too, as they
+		// always were, except in a memory of every int, where they wrap to 0
+		long size = memory.getSize();
+		long limit = size > 0xFFFFFFFFL ? size : size - 1;
+		if (sourceStart >= size || sourceEnd < 0 || sourceEnd > limit ||
+				targetStart >= size || targetEnd < 0 || targetEnd > limit) {
+			return Fault.COPY_RANGE;
+		}
+
+		// working down; the int addresses wrap like the unsigned ones
+		if (sourceStart < targetStart) {
+			for (int i = length, j = 1; i > 0; i--, j++) {
+				memory.setData(target + length - j, memory.getData(source + length - j));
+			}
+		}
+
+		// working up
+		else {
+			for (int i = 0; i < length; i++) {
+				memory.setData(target + i, memory.getData(source + i));
+			}
+		}
+		return Fault.NONE;
+	}
+}
@@ -2,6 +2,7 @@ package pippin;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -1001,6 +1002,32 @@ public class InstructionTester {
 		instr.execute(arg); 
 	}
 
+	@Test 
+	// this test checks that a range may end just before the last cell, but
+	// not at the end of the memory, since source + length is an address too
+	public void testCOPYrangeEnd() {
+		Instruction instr = machine.get(0x1D);
+		machine.setData(0, 509);
+		machine.setData(1, 100);
+		machine.setData(2, 2);
+		machine.setData(509, 15);
+		machine.setData(510, 16);
+		machine.setData(511, 17);
+
+		instr.execute(0); 
+		assertEquals(15, machine.getData(100));
+		assertEquals(16, machine.getData(101));
+
+		machine.setData(2, 3);
+		int unchanged = machine.getData(102);
+		try {
+			instr.execute(0);
+			fail("the source range reaches the end of the memory");
+		} catch(IllegalArgumentException e) {
+		}
+		assertEquals(unchanged, machine.getData(102));
+	}
+
 	// FROM : http://stackoverflow.com/questions/309396/java-how-to-test-methods-that-call-system-exit
 	@Rule
 	public final ExpectedSystemExit exit = ExpectedSystemExit.none();
@@ -0,0 +1,577 @@
+package pippin;
+
+import static pippin.ClassFileWriter.*;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.LongBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiles the program loaded in a MachineModel to JVM bytecode, so that HotSpot
+ * can optimize the Pippin program like any other Java method. Each instruction
+ * becomes straight-line bytecode on an accumulator held in a local variable,
+ * immediate jumps become branches to the target instruction and the indirect
+ * jumps go through a tableswitch on the program counter. The class is defined as
+ * a hidden class. The most recently compiled classes are kept, so compiling the
+ * same program for another model reuses the class HotSpot has already optimized.
+ * <p>
+ * The compiled engine has the same semantics as MachineModel.step(): the same
+ * instructions fail, with the registers of the model pointing at the failing
+ * instruction, and HALT leaves the program counter on the HALT instruction. The
+ * addresses and divisors are checked before they are used, so a failure returns
+ * the ordinal of its Fault from the run method instead of throwing. The step budget of a bounded run is checked before
+ * every instruction, which HotSpot turns into a compare and a predicted branch.
+ */
+public class JitCompiler {
+	private static final String GENERATED = "pippin/JitProgram";
+	private static final String PROGRAM = "pippin/CompiledProgram";
+	private static final String MODEL = "pippin/MachineModel";
+	private static final String MEMORY = "pippin/Memory";
+	private static final String FAULT = "pippin/Fault";
+	// changed whenever the generated code changes, so stored classes are not reused
+	static final int VERSION = 4;
+	/** returned by the generated run method when the step limit is reached */
+	static final int STEP_LIMIT = -1;
+
+	// The local variable slots of the generated run method
+	private static final int THIS = 0;
+	private static final int MODEL_ARG = 1;
+	private static final int MEMORY_ARG = 2;
+	private static final int MAX_STEPS_ARG = 3; // the longs use two slots
+	private static final int ACC = 5;
+	private static final int PC = 6;
+	private static final int STEPS = 7;
+	private static final int TEMP = 9;
+	private static final int RESULT = 10;
+
+	// the most chars in one packed constant of a load method, and the most
+	// cells in one run, which must fit in a constant with its start and length
+	private static final int CHUNK_CHARS = 16384;
+	private static final int MAX_RUN = (CHUNK_CHARS - 4) / 2;
+
+	private static final int CACHE_SIZE = 64;
+	// constructors of the compiled classes, least recently used first
+	private static Map<LongBuffer, MethodHandle> compiled = 
+			new LinkedHashMap<LongBuffer, MethodHandle>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<LongBuffer, MethodHandle> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Compiles the program loaded in the model
+	 * @param model the model holding the program and the memory it runs on
+	 * @return the engine that runs the compiled program on the model
+	 * @throws IllegalStateException if the program is too large for one JVM method
+	 * or the class cannot be defined
+	 */
+	public static CompiledProgram compile(MachineModel model) {
+		if(model == null) throw new IllegalArgumentException("Coding error: the model is null");
+		Code code = model.getCode();
+		LongBuffer key = LongBuffer.wrap(code.getWords());
+		MethodHandle constructor;
+		synchronized(compiled) {
+			constructor = compiled.get(key);
+		}
+		if(constructor == null) {
+			constructor = define(generate(code));
+			synchronized(compiled) {
+				compiled.put(key, constructor);
+			}
+		}
+		try {
+			CompiledProgram program = (CompiledProgram)constructor.invoke();
+			program.setModel(model);
+			return program;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Unable to create the compiled program", e);
+		}
+	}
+
+	static MethodHandle define(byte[] classFile) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+			return lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to define the compiled program", e);
+		}
+	}
+
+	/**
+	 * Generates the class file for a program, with a load method that puts only
+	 * the program into a model
+	 * @param code the program to compile
+	 * @return the bytes of a class file for a subclass of CompiledProgram
+	 */
+	static byte[] generate(Code code) {
+		return generate(code, null, -1);
+	}
+
+	/**
+	 * Generates the class file for a program, including a load method that puts
+	 * the program and its data into a cleared model
+	 * @param code the program to compile
+	 * @param data the data loaded with the program, or null for none
+	 * @param changedIndex the changed index of the loaded memory
+	 * @return the bytes of a class file for a subclass of CompiledProgram
+	 * @throws IllegalStateException if the program or data is too large for one
+	 * class file
+	 */
+	static byte[] generate(Code code, SparseBackend data, int changedIndex) {
+		ClassFileWriter writer = new ClassFileWriter();
+		generateLoad(writer, code, data, changedIndex);
+
+		ClassFileWriter.MethodWriter init = writer.method(ACC_PUBLIC, "<init>", "()V");
+		init.op(ALOAD, THIS);
+		init.invoke(INVOKESPECIAL, PROGRAM, "<init>", "()V");
+		init.op(RETURN);
+		init.end(1, 1);
+
+		ClassFileWriter.MethodWriter run = writer.method(0, "run",
+				"(L" + MODEL + ";L" + MEMORY + ";J)I");
+		int size = code.getProgramSize();
+		Label[] lines = new Label[size];
+		for(int i = 0; i < size; i++) {
+			lines[i] = new Label();
+		}
+		Labels exits = new Labels();
+		Label dispatch = new Label();
+
+		run.op(ALOAD, MODEL_ARG);
+		run.invoke(INVOKEVIRTUAL, MODEL, "getAccumulator", "()I");
+		run.op(ISTORE, ACC);
+		run.op(ALOAD, MODEL_ARG);
+		run.invoke(INVOKEVIRTUAL, MODEL, "getProgramCounter", "()I");
+		run.op(ISTORE, PC);
+		run.op(LCONST_0);
+		run.op(LSTORE, STEPS);
+		run.jump(GOTO, dispatch);
+
+		// jumps to lines outside the program set the program counter
+		// and then fail, like the next step of the model would
+		Label[] outside = new Label[size];
+		int[] outsideTargets = new int[size];
+
+		for(int i = 0; i < size; i++) {
+			int op = code.getOp(i);
+			int arg = code.getArg(i);
+			run.mark(lines[i]);
+			setPc(run, i);
+			run.op(LLOAD, STEPS);
+			run.op(LLOAD, MAX_STEPS_ARG);
+			run.op(LCMP);
+			run.jump(IFGE, exits.limit);
+			switch(op) {
+			case 0x0: // NOP
+				step(run);
+				break;
+			case 0x1: // LODI
+				run.pushInt(arg);
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x2: // LOD
+				load(run, exits, arg);
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x3: // LODN
+				loadIndirect(run, exits, arg);
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x4: // STO
+				check(run, exits, arg);
+				run.op(ALOAD, MEMORY_ARG);
+				run.pushInt(arg);
+				store(run);
+				step(run);
+				break;
+			case 0x5: // STON
+				load(run, exits, arg);
+				run.op(ISTORE, TEMP);
+				checkTemp(run, exits);
+				run.op(ALOAD, MEMORY_ARG);
+				run.op(ILOAD, TEMP);
+				store(run);
+				step(run);
+				break;
+			case 0x6: // JMPI
+				step(run);
+				if(arg >= 0 && arg < size) {
+					run.jump(GOTO, lines[arg]);
+				} else {
+					outside[i] = new Label();
+					outsideTargets[i] = arg;
+					run.jump(GOTO, outside[i]);
+				}
+				break;
+			case 0x7: // JUMP
+				load(run, exits, arg);
+				run.op(ISTORE, PC);
+				step(run);
+				run.jump(GOTO, dispatch);
+				break;
+			case 0x8: // JMZI
+				step(run);
+				run.op(ILOAD, ACC);
+				if(arg >= 0 && arg < size) {
+					run.jump(IFEQ, lines[arg]);
+				} else {
+					outside[i] = new Label();
+					outsideTargets[i] = arg;
+					run.jump(IFEQ, outside[i]);
+				}
+				break;
+			case 0x9: // JMPZ, which reads the target even when the jump is not taken
+				Label notZero = new Label();
+				check(run, exits, arg);
+				run.op(ILOAD, ACC);
+				run.jump(IFNE, notZero);
+				load(run, exits, arg);
+				run.op(ISTORE, PC);
+				step(run);
+				run.jump(GOTO, dispatch);
+				run.mark(notZero);
+				step(run);
+				break;
+			case 0xA: // ADDI
+			case 0xD: // SUBI
+			case 0x10: // MULI
+				run.pushInt(arg);
+				arithmetic(run, exits, op);
+				step(run);
+				break;
+			case 0x13: // DIVI
+				if(arg == 0) {
+					fail(run, exits, Fault.DIVIDE_BY_ZERO);
+				} else {
+					run.pushInt(arg);
+					arithmetic(run, exits, op);
+					step(run);
+				}
+				break;
+			case 0xB: // ADD
+			case 0xE: // SUB
+			case 0x11: // MUL
+			case 0x14: // DIV
+				load(run, exits, arg);
+				arithmetic(run, exits, op);
+				step(run);
+				break;
+			case 0xC: // ADDN
+			case 0xF: // SUBN
+			case 0x12: // MULN
+			case 0x15: // DIVN
+				loadIndirect(run, exits, arg);
+				arithmetic(run, exits, op);
+				step(run);
+				break;
+			case 0x16: // ANDI
+				run.op(ILOAD, ACC);
+				run.pushInt(arg);
+				run.invoke(INVOKESTATIC, PROGRAM, "and", "(II)I");
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x17: // AND
+				load(run, exits, arg);
+				run.op(ILOAD, ACC);
+				run.invoke(INVOKESTATIC, PROGRAM, "and", "(II)I");
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x18: // NOT
+				run.op(ILOAD, ACC);
+				run.invoke(INVOKESTATIC, PROGRAM, "not", "(I)I");
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x19: // CMPL
+				load(run, exits, arg);
+				run.invoke(INVOKESTATIC, PROGRAM, "negative", "(I)I");
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x1A: // CMPZ
+				load(run, exits, arg);
+				run.invoke(INVOKESTATIC, PROGRAM, "not", "(I)I");
+				run.op(ISTORE, ACC);
+				step(run);
+				break;
+			case 0x1D: // COPY
+				run.pushInt(arg);
+				copy(run, exits);
+				step(run);
+				break;
+			case 0x1E: // CPYN
+				load(run, exits, arg);
+				copy(run, exits);
+				step(run);
+				break;
+			case 0x1F: // HALT
+				step(run);
+				run.pushInt(Fault.NONE.ordinal());
+				run.jump(GOTO, exits.finish);
+				break;
+			default:
+				fail(run, exits, Fault.ILLEGAL_INSTRUCTION);
+			}
+		}
+		// the last line falls through to the line after the program
+		setPc(run, size);
+		run.jump(GOTO, exits.codeFault);
+
+		for(int i = 0; i < size; i++) {
+			if(outside[i] != null) {
+				run.mark(outside[i]);
+				setPc(run, outsideTargets[i]);
+				run.jump(GOTO, exits.codeFault);
+			}
+		}
+
+		run.mark(dispatch);
+		if(size > 0) {
+			run.op(ILOAD, PC);
+			run.tableSwitch(exits.codeFault, lines);
+		}
+		// the line after a jump outside the program or off its end is fetched
+		// like any other, so the budget is checked before it fails
+		run.mark(exits.codeFault);
+		run.op(LLOAD, STEPS);
+		run.op(LLOAD, MAX_STEPS_ARG);
+		run.op(LCMP);
+		run.jump(IFGE, exits.limit);
+		fail(run, exits, Fault.CODE_ACCESS);
+		run.mark(exits.dataFault);
+		fail(run, exits, Fault.DATA_ACCESS);
+		run.mark(exits.divideFault);
+		fail(run, exits, Fault.DIVIDE_BY_ZERO);
+		run.mark(exits.limit);
+		run.pushInt(STEP_LIMIT);
+
+		// every exit arrives with its result on the stack
+		run.mark(exits.finish);
+		run.op(ISTORE, RESULT);
+		save(run);
+		run.op(ILOAD, RESULT);
+		run.op(IRETURN);
+		run.end(6, 11);
+
+		return writer.toByteArray(ACC_PUBLIC | ACC_FINAL | ACC_SUPER, GENERATED, PROGRAM);
+	}
+
+	// The shared exits of the run method. The faults and the limit are reached
+	// with an empty stack and finish with the result on the stack, because the
+	// verifier of a class without stack maps needs the same stack on every branch.
+	private static class Labels {
+		Label codeFault = new Label();
+		Label dataFault = new Label();
+		Label divideFault = new Label();
+		Label limit = new Label();
+		Label finish = new Label();
+	}
+
+	// The program and the runs of cells that are not zero are packed into
+	// string constants of at most CHUNK_CHARS chars, which keeps each one well
+	// inside the 65535 bytes of a class file constant. The changed index is
+	// written last so the model reports the same changed cell.
+	private static void generateLoad(ClassFileWriter writer, Code code, SparseBackend data, int changedIndex) {
+		ClassFileWriter.MethodWriter load = writer.method(0, "load", "(L" + MODEL + ";)V");
+		StringBuilder chunk = new StringBuilder();
+		for(int i = 0; i < code.getProgramSize(); i++) {
+			if(chunk.length() + 4 > CHUNK_CHARS) {
+				loadChunk(load, "appendCode", chunk);
+			}
+			pack(chunk, code.getOp(i));
+			pack(chunk, code.getArg(i));
+		}
+		loadChunk(load, "appendCode", chunk);
+		if(data != null) {
+			for(int number = 0; number < SparseBackend.PAGE_COUNT; number++) {
+				int[] page = data.getPage(number);
+				if(page != null) {
+					packData(load, chunk, page, number * SparseBackend.PAGE_SIZE);
+				}
+			}
+			loadChunk(load, "setData", chunk);
+			if(changedIndex >= 0) {
+				load.op(ALOAD, MODEL_ARG);
+				load.pushInt(changedIndex);
+				load.pushInt(data.get(changedIndex));
+				load.invoke(INVOKEVIRTUAL, MODEL, "setData", "(II)V");
+			}
+		}
+		load.op(RETURN);
+		load.end(3, 2);
+	}
+
+	// Packs the runs of cells that are not zero, where cells[0] is at the start
+	// address, and loads the chunk whenever the next run would not fit
+	private static void packData(ClassFileWriter.MethodWriter load, StringBuilder chunk,
+			int[] cells, int start) {
+		int i = 0;
+		while(i < cells.length) {
+			if(cells[i] == 0) {
+				i++;
+				continue;
+			}
+			int end = i + 1;
+			while(end < cells.length && cells[end] != 0 && end - i < MAX_RUN) {
+				end++;
+			}
+			if(chunk.length() + 4 + 2 * (end - i) > CHUNK_CHARS) {
+				loadChunk(load, "setData", chunk);
+			}
+			pack(chunk, start + i);
+			pack(chunk, end - i);
+			for(int j = i; j < end; j++) {
+				pack(chunk, cells[j]);
+			}
+			i = end;
+		}
+	}
+
+	private static void pack(StringBuilder chunk, int value) {
+		chunk.append((char)(value >>> 16)).append((char)value);
+	}
+
+	// Calls the CompiledProgram method that unpacks the chunk, if it is not empty
+	private static void loadChunk(ClassFileWriter.MethodWriter load, String method, StringBuilder chunk) {
+		if(chunk.length() == 0) return;
+		load.op(ALOAD, MODEL_ARG);
+		load.ldcString(chunk.toString());
+		load.invoke(INVOKESTATIC, PROGRAM, method, "(L" + MODEL + ";Ljava/lang/String;)V");
+		chunk.setLength(0);
+	}
+
+	private static void step(ClassFileWriter.MethodWriter run) {
+		run.op(LLOAD, STEPS);
+		run.op(LCONST_1);
+		run.op(LADD);
+		run.op(LSTORE, STEPS);
+	}
+
+	// The program counter is stored at the start of every line and before
+	// every jump outside the program. It is only read when the method returns,
+	// so HotSpot removes the stores that are never read.
+	private static void setPc(ClassFileWriter.MethodWriter run, int line) {
+		run.pushInt(line);
+		run.op(ISTORE, PC);
+	}
+
+	private static void check(ClassFileWriter.MethodWriter run, Labels exits, int address) {
+		run.op(ALOAD, MEMORY_ARG);
+		run.pushInt(address);
+		run.invoke(INVOKEVIRTUAL, MEMORY, "contains", "(I)Z");
+		run.jump(IFEQ, exits.dataFault);
+	}
+
+	private static void checkTemp(ClassFileWriter.MethodWriter run, Labels exits) {
+		run.op(ALOAD, MEMORY_ARG);
+		run.op(ILOAD, TEMP);
+		run.invoke(INVOKEVIRTUAL, MEMORY, "contains", "(I)Z");
+		run.jump(IFEQ, exits.dataFault);
+	}
+
+	private static void load(ClassFileWriter.MethodWriter run, Labels exits, int address) {
+		check(run, exits, address);
+		run.op(ALOAD, MEMORY_ARG);
+		run.pushInt(address);
+		run.invoke(INVOKEVIRTUAL, MEMORY, "getData", "(I)I");
+	}
+
+	private static void loadIndirect(ClassFileWriter.MethodWriter run, Labels exits, int address) {
+		load(run, exits, address);
+		run.op(ISTORE, TEMP);
+		checkTemp(run, exits);
+		run.op(ALOAD, MEMORY_ARG);
+		run.op(ILOAD, TEMP);
+		run.invoke(INVOKEVIRTUAL, MEMORY, "getData", "(I)I");
+	}
+
+	// expects the memory and the address on the stack
+	private static void store(ClassFileWriter.MethodWriter run) {
+		run.op(ILOAD, ACC);
+		run.invoke(INVOKEVIRTUAL, MEMORY, "setData", "(II)V");
+	}
+
+	// expects the operand on the stack, which is kept in TEMP so that
+	// the divisor can be checked with nothing else on the stack
+	private static void arithmetic(ClassFileWriter.MethodWriter run, Labels exits, int op) {
+		run.op(ISTORE, TEMP);
+		if(op == 0x14 || op == 0x15) {
+			run.op(ILOAD, TEMP);
+			run.jump(IFEQ, exits.divideFault);
+		}
+		run.op(ILOAD, ACC);
+		run.op(ILOAD, TEMP);
+		if(op <= 0xC) {
+			run.op(IADD);
+		} else if(op <= 0xF) {
+			run.op(ISUB);
+		} else if(op <= 0x12) {
+			run.op(IMUL);
+		} else {
+			run.op(IDIV);
+		}
+		run.op(ISTORE, ACC);
+	}
+
+	// expects the arg of the copy on the stack
+	private static void copy(ClassFileWriter.MethodWriter run, Labels exits) {
+		Label copied = new Label();
+		run.op(ISTORE, TEMP);
+		run.op(ALOAD, MODEL_ARG);
+		run.op(ILOAD, TEMP);
+		run.invoke(INVOKEVIRTUAL, MODEL, "copyData", "(I)L" + FAULT + ";");
+		run.invoke(INVOKEVIRTUAL, FAULT, "ordinal", "()I");
+		run.op(DUP);
+		run.jump(IFEQ, copied);
+		run.jump(GOTO, exits.finish);
+		run.mark(copied);
+		run.op(POP);
+	}
+
+	private static void fail(ClassFileWriter.MethodWriter run, Labels exits, Fault fault) {
+		run.pushInt(fault.ordinal());
+		run.jump(GOTO, exits.finish);
+	}
+
+	private static void save(ClassFileWriter.MethodWriter run) {
+		run.op(ALOAD, MODEL_ARG);
+		run.op(ILOAD, ACC);
+		run.invoke(INVOKEVIRTUAL, MODEL, "setAccumulator", "(I)V");
+		run.op(ALOAD, MODEL_ARG);
+		run.op(ILOAD, PC);
+		run.invoke(INVOKEVIRTUAL, MODEL, "setProgramCounter", "(I)V");
+		run.op(ALOAD, THIS);
+		run.op(DUP);
+		run.field(GETFIELD, PROGRAM, "steps", "J");
+		run.op(LLOAD, STEPS);
+		run.op(LADD);
+		run.field(PUTFIELD, PROGRAM, "steps", "J");
+	}
+
+	/**
+	 * Compiles and runs an executable, which shows the time taken by a program
+	 * once HotSpot has compiled the generated class
+	 * @param args the name of the executable file
+	 */
+	public static void main(String[] args) {
+		MachineModel m = new MachineModel(true);
+		System.out.println(Loader.load(m, new File(args.length > 0 ? args[0] : "qsort.pexe")));
+		CompiledProgram program = compile(m);
+		long start = System.nanoTime();
+		program.execute();
+		long time = System.nanoTime() - start;
+		System.out.println(program.getSteps() + " steps, " + time/1000 + " microseconds");
+	}
+}
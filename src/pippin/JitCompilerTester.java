@@ -0,0 +1,132 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JitCompilerTester {
+	// instructions that cannot run for long or leave the memory, for the
+	// random programs: every arg is a line or a cell from 0 to 7
+	private static final int[] OPS = {0x0, 0x1, 0x2, 0x3, 0x4, 0x5, 0x6, 0x7, 0x8, 0x9, 0xA, 0xB,
+			0xD, 0x10, 0x13, 0x14, 0x16, 0x17, 0x18, 0x19, 0x1A, 0x1F};
+
+	private MachineModel newModel(MachineModel image) {
+		MachineModel machine = new MachineModel(true);
+		for(int i = 0; i < image.getCode().getProgramSize(); i++) {
+			machine.setCode(image.getCode().getOp(i), image.getCode().getArg(i));
+		}
+		int[] data = image.getData();
+		for(int i = 0; i < data.length; i++) {
+			machine.setData(i, data[i]);
+		}
+		machine.setRunning(true);
+		return machine;
+	}
+
+	// Runs the program with both engines for the same budget and checks that
+	// they stop for the same reason with the same state
+	private void compare(MachineModel image, long maxSteps) {
+		MachineModel fast = newModel(image);
+		MachineModel jit = newModel(image);
+		RunResult expected = new FastInterpreter(fast).run(maxSteps);
+		RunResult actual = JitCompiler.compile(jit).run(maxSteps);
+		String name = "budget " + maxSteps + ": ";
+		assertEquals(name + "Reason", expected.getReason(), actual.getReason());
+		assertEquals(name + "Steps", expected.getSteps(), actual.getSteps());
+		assertEquals(name + "Fault", expected.getFault(), actual.getFault());
+		assertEquals(name + "Fault program counter", expected.getFaultProgramCounter(),
+				actual.getFaultProgramCounter());
+		assertEquals(name + "Program counter", fast.getProgramCounter(), jit.getProgramCounter());
+		assertEquals(name + "Accumulator", fast.getAccumulator(), jit.getAccumulator());
+		assertArrayEquals(fast.getData(), jit.getData());
+	}
+
+	private void compareFile(String fileName) {
+		MachineModel image = new MachineModel(true);
+		assertEquals("success", Loader.load(image, new File(fileName)));
+		compare(image, Long.MAX_VALUE);
+		for(long budget = 0; budget < 50; budget++) {
+			compare(image, budget);
+		}
+	}
+
+	@Test
+	public void testPrograms() {
+		compareFile("test/factorial8.pexe");
+		compareFile("test/factorialindirect7.pexe");
+		compareFile("test/merge.pexe");
+		compareFile("test/qsort.pexe");
+	}
+
+	@Test
+	public void testFaults() {
+		compareFile("test/29r.pexe");
+		compareFile("test/30r.pexe");
+		compareFile("test/31r.pexe");
+	}
+
+	@Test
+	// the jump leaves the program, so the next fetch is outside the code and
+	// the budget must be checked before it fails
+	public void testStepLimitOutsideProgram() {
+		MachineModel image = new MachineModel(true);
+		image.setCode(0x8, 1); // JMZI 1
+		MachineModel machine = newModel(image);
+		RunResult result = JitCompiler.compile(machine).run(1);
+		assertEquals(HaltReason.STEP_LIMIT, result.getReason());
+		assertEquals("Steps", 1, result.getSteps());
+		compare(image, 1);
+		compare(image, 2);
+
+		image = new MachineModel(true);
+		image.setCode(0x0, 0); // NOP, then off the end of the program
+		compare(image, 1);
+		image = new MachineModel(true);
+		image.setCode(0x1, 5); // LODI 5
+		image.setCode(0x4, 0); // STO 0
+		image.setCode(0x7, 0); // JUMP 5, through the tableswitch
+		compare(image, 3);
+		compare(image, 4);
+	}
+
+	@Test
+	// JMPZ reads its target from memory even when the jump is not taken
+	public void testJumpIfZeroReadsTarget() {
+		MachineModel image = new MachineModel(true);
+		image.setCode(0x1, 1); // LODI 1
+		image.setCode(0x9, Memory.DATA_SIZE); // JMPZ outside the memory
+		image.setCode(0x1F, 0); // HALT
+		RunResult result = JitCompiler.compile(newModel(image)).run(Long.MAX_VALUE);
+		assertEquals(HaltReason.FAULT, result.getReason());
+		assertEquals(Fault.DATA_ACCESS, result.getFault());
+		assertEquals("Fault program counter", 1, result.getFaultProgramCounter());
+		compare(image, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testRandomPrograms() {
+		Random random = new Random(3);
+		for(int n = 0; n < 200; n++) {
+			MachineModel image = new MachineModel(true);
+			int size = 1 + random.nextInt(10);
+			for(int i = 0; i < size; i++) {
+				int op = OPS[random.nextInt(OPS.length)];
+				int arg = random.nextInt(8);
+				if(op == 0x1 || op == 0xA || op == 0xD || op == 0x10 || op == 0x13) {
+					arg -= 3;
+				}
+				image.setCode(op, arg);
+			}
+			for(int i = 0; i < 8; i++) {
+				image.setData(i, random.nextInt(12) - 2);
+			}
+			for(long budget = 0; budget < 40; budget++) {
+				compare(image, budget);
+			}
+		}
+	}
+}
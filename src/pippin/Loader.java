@@ -1,45 +1,289 @@
 package pippin;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 
 public class Loader {
+	// the number of instructions or cells collected before a bulk write
+	private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Loads an executable into a model. A binary executable is mapped and copied
+     * in blocks; a text executable is read a line at a time by a PexeReader and
+     * copied in chunks, with one bulk write for each run of consecutive cells.
+     * @param model the model to load
+     * @param file the executable, in either form
+     * @return "success", or the reason the file could not be loaded, which ends
+     * with the line number for a bad line of a text executable
+     */
     public static String load(MachineModel model, File file) {
     	if(model == null || file == null) return null;
-    	
-        try (Scanner input = new Scanner(file)) {
-        	boolean readingCode = true;
-        	
-        	while(input.hasNextLine()) {
-        		String line = input.nextLine();
-				Scanner parser = new Scanner(line);
-				int int1 = parser.nextInt(16);
-				
-				if(readingCode == true && int1 == -1) {
-					readingCode = false;
-				} else if(readingCode == true) {
-					int int2 = parser.nextInt(16);
-					model.setCode(int1, int2);
-				} else {
-					int int2 = parser.nextInt(16);
-					model.setData(int1, int2);
-				}
-				
-				parser.close();
-        	}
-        	
-            return "success";
-            
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return("Array Index " + e.getMessage());
-        } catch (NoSuchElementException e) {
-            return("NoSuchElementException");
+    	if(BinaryExecutable.isBinary(file)) {
+    		return BinaryExecutable.load(model, file, true);
+    	}
+
+        try (PexeReader input = new PexeReader(file)) {
+        	return load(model, input);
+        } catch (FileNotFoundException e1) {
+            return("File " + file.getName() + " Not Found");
+        } catch (IOException e) {
+            return("File " + file.getName() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receives the numbers of the lines of a text executable as read reads them
+     */
+    interface Lines {
+    	void code(int op, int arg);
+
+    	/**
+    	 * Called at the -1 that ends the code
+    	 */
+    	void endCode();
+
+    	void data(int address, int value);
+
+    	/**
+    	 * Called once at the end, after an error too, to write what is collected
+    	 */
+    	void flush();
+    }
+
+    /**
+     * Reads a text executable a line at a time, the way load does, so the
+     * converters report a bad line with the same message
+     * @param input the reader of the executable
+     * @param lines the code and data of each line
+     * @return "success", or the reason the lines could not be read, which ends
+     * with the line number
+     * @throws IOException if the executable cannot be read
+     */
+    static String read(PexeReader input, Lines lines) throws IOException {
+    	try {
+    		boolean readingCode = true;
+    		while(input.nextLine()) {
+    			int int1 = input.nextInt();
+    			if(readingCode && int1 == -1) {
+    				lines.endCode();
+    				readingCode = false;
+    			} else if(readingCode) {
+    				lines.code(int1, input.nextInt());
+    			} else {
+    				lines.data(int1, input.nextInt());
+    			}
+    		}
+    		return "success";
+    	} catch (ArrayIndexOutOfBoundsException e) {
+    		return("Array Index " + e.getMessage() + " on line " + input.getLineNumber());
+    	} catch (NoSuchElementException e) {
+    		return("NoSuchElementException on line " + input.getLineNumber());
+    	} finally {
+    		// the lines before an error are loaded, as they were one at a time
+    		lines.flush();
+    	}
+    }
+
+    private static String load(MachineModel model, PexeReader input) throws IOException {
+    	CodeChunk code = new CodeChunk(model);
+    	DataRun data = new DataRun(model.getMemory());
+    	return read(input, new Lines() {
+    		@Override
+    		public void code(int op, int arg) {
+    			code.add(op, arg);
+    		}
+
+    		@Override
+    		public void endCode() {
+    			code.flush();
+    		}
+
+    		@Override
+    		public void data(int address, int value) {
+    			data.add(address, value);
+    		}
+
+    		@Override
+    		public void flush() {
+    			code.flush();
+    			data.flush();
+    		}
+    	});
+    }
+
+    // Collects instructions and appends them to the code of the model together
+    private static final class CodeChunk {
+    	private final MachineModel model;
+    	private final long[] words = new long[CHUNK_SIZE];
+    	private int length;
+
+    	CodeChunk(MachineModel model) {
+    		this.model = model;
+    	}
+
+    	void add(int op, int arg) {
+    		if(length == words.length) flush();
+    		words[length++] = ((long)op << 32) | (arg & 0xFFFFFFFFL);
+    	}
+
+    	void flush() {
+    		if(length > 0) model.appendCode(LongBuffer.wrap(words, 0, length));
+    		length = 0;
+    	}
+    }
+
+    // Collects cells with consecutive addresses and writes each run with one
+    // bulk setData. An address outside memory is written on its own, so the
+    // exception is thrown on its line.
+    private static final class DataRun {
+    	private final Memory memory;
+    	private final int[] values = new int[CHUNK_SIZE];
+    	private int start;
+    	private int length;
+
+    	DataRun(Memory memory) {
+    		this.memory = memory;
+    	}
+
+    	void add(int address, int value) {
+    		if(!memory.contains(address)) {
+    			flush();
+    			memory.setData(address, value);
+    		}
+    		if(length == values.length || (length > 0 && address != start + length)) {
+    			flush();
+    		}
+    		if(length == 0) start = address;
+    		values[length++] = value;
+    	}
+
+    	void flush() {
+    		memory.setData(start, values, 0, length);
+    		length = 0;
+    	}
+    }
+
+    /**
+     * Loads an executable into an image that can be shared by many machines
+     * @param file the executable
+     * @return the image of the program and its data
+     * @throws IllegalArgumentException if the file cannot be loaded, with the
+     * message that load returns
+     */
+    public static ProgramImage loadImage(File file) {
+    	if(BinaryExecutable.isBinary(file)) {
+    		return BinaryExecutable.loadImage(file);
+    	}
+    	MachineModel model = new MachineModel(true);
+    	String result = load(model, file);
+    	if(!"success".equals(result)) {
+    		throw new IllegalArgumentException(result);
+    	}
+    	return ProgramImage.of(model);
+    }
+
+    /**
+     * Loads an executable that has already been read, so a caller that hashes
+     * the file reads it only once
+     * @param contents the bytes of the executable, in either form
+     * @return the image of the program and its data
+     * @throws IllegalArgumentException if the executable cannot be loaded, with
+     * the message that load returns
+     */
+    static ProgramImage loadImage(byte[] contents) {
+    	ByteBuffer buffer = ByteBuffer.wrap(contents);
+    	if(BinaryExecutable.isBinary(buffer)) {
+    		return BinaryExecutable.loadImage(buffer);
+    	}
+    	MachineModel model = new MachineModel(true);
+    	String result;
+    	try (PexeReader input = new PexeReader(
+    			Channels.newChannel(new ByteArrayInputStream(contents)))) {
+    		result = load(model, input);
+    	} catch (IOException e) {
+    		result = e.getMessage();
+    	}
+    	if(!"success".equals(result)) {
+    		throw new IllegalArgumentException(result);
+    	}
+    	return ProgramImage.of(model);
+    }
+
+    /**
+     * Loads a data set into the memory of a model without changing its program.
+     * The file holds "address value" lines in hex, like the data section of an
+     * executable. If the file is a whole executable, the lines up to the -1 that
+     * ends the code are skipped, and of a binary executable only the data is
+     * loaded.
+     * @param model the model to load
+     * @param file the data set
+     * @return "success", or the reason the data could not be loaded
+     */
+    public static String loadData(MachineModel model, File file) {
+    	if(model == null || file == null) return null;
+    	if(BinaryExecutable.isBinary(file)) {
+    		return BinaryExecutable.load(model, file, false);
+    	}
+
+        try (PexeReader input = new PexeReader(file)) {
+        	return loadData(model, input);
         } catch (FileNotFoundException e1) {
             return("File " + file.getName() + " Not Found");
+        } catch (IOException e) {
+            return("File " + file.getName() + " " + e.getMessage());
         }
     }
+
+    private static String loadData(MachineModel model, PexeReader input) throws IOException {
+    	DataRun data = new DataRun(model.getMemory());
+    	// address, value and line number of the lines before a separator
+    	int[] pending = new int[3 * CHUNK_SIZE];
+    	int pendingLength = 0;
+    	boolean afterCode = false;
+    	int line = 0;
+    	try {
+    		while(input.nextLine()) {
+    			line = input.getLineNumber();
+    			int int1 = input.nextInt();
+    			if(!afterCode && int1 == -1) {
+    				// everything before the separator was code
+    				pendingLength = 0;
+    				afterCode = true;
+    			} else {
+    				int int2 = input.nextInt();
+    				if(afterCode) {
+    					data.add(int1, int2);
+    				} else {
+    					if(pendingLength == pending.length) {
+    						pending = Arrays.copyOf(pending, 2 * pending.length);
+    					}
+    					pending[pendingLength++] = int1;
+    					pending[pendingLength++] = int2;
+    					pending[pendingLength++] = line;
+    				}
+    			}
+    		}
+    		for(int i = 0; i < pendingLength; i += 3) {
+    			line = pending[i + 2];
+    			data.add(pending[i], pending[i + 1]);
+    		}
+    		return "success";
+    	} catch (ArrayIndexOutOfBoundsException e) {
+    		return("Array Index " + e.getMessage() + " on line " + line);
+    	} catch (NoSuchElementException e) {
+    		return("NoSuchElementException on line " + line);
+    	} finally {
+    		data.flush();
+    	}
+    }
+
     // this main is only for initial testing and can be deleted after the load works correctly
     public static void main(String[] args) {
         MachineModel m = new MachineModel();
@@ -0,0 +1,84 @@
+package pippin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class LoaderTester {
+
+	private String load(MachineModel model, String text) throws IOException {
+		File file = File.createTempFile("pippin", ".pexe");
+		try {
+			Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+			return Loader.load(model, file);
+		} finally {
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	@Test
+	public void testLoad() throws IOException {
+		MachineModel model = new MachineModel(true);
+		assertEquals("success", load(model, "1 -5\r\n1f 0\n-1\n10 +a\n11 FF\t junk\n3 7"));
+		assertEquals(2, model.getCode().getProgramSize());
+		assertEquals(-5, model.getCode().getArg(0));
+		assertEquals(10, model.getData(0x10));
+		assertEquals(255, model.getData(0x11));
+		assertEquals(7, model.getData(3));
+		assertEquals(3, model.getChangedIndex());
+	}
+
+	@Test
+	// the lines before the bad line are loaded
+	public void testLineNumbers() throws IOException {
+		MachineModel model = new MachineModel(true);
+		assertEquals("NoSuchElementException on line 3", load(model, "1 5\n-1\n4\n"));
+		assertEquals(1, model.getCode().getProgramSize());
+		assertEquals("NoSuchElementException on line 2", load(model, "1 5\n1 5x\n"));
+		assertEquals("NoSuchElementException on line 2", load(model, "1 5\n\n"));
+		assertEquals("NoSuchElementException on line 1", load(model, "80000000 0\n"));
+		model = new MachineModel(true);
+		assertEquals("Array Index Index 512 out of bounds for length 512 on line 4",
+				load(model, "-1\n1ff 1\n0 2\n200 3\n"));
+		assertEquals(1, model.getData(0x1FF));
+		assertEquals(2, model.getData(0));
+	}
+
+	private void assertSameImage(ProgramImage expected, ProgramImage actual) {
+		assertEquals(expected.getProgramSize(), actual.getProgramSize());
+		for(int i = 0; i < expected.getProgramSize(); i++) {
+			assertEquals(expected.getOp(i), actual.getOp(i));
+			assertEquals(expected.getArg(i), actual.getArg(i));
+		}
+		for(int i = 0; i < Memory.DATA_SIZE; i++) {
+			assertEquals(expected.getData(i), actual.getData(i));
+		}
+		assertEquals(expected.getChangedIndex(), actual.getChangedIndex());
+	}
+
+	@Test
+	// the bytes of an executable, in either form, make the image the file does
+	public void testLoadImageFromBytes() throws IOException {
+		File text = new File("test/qsort.pexe");
+		assertSameImage(Loader.loadImage(text), Loader.loadImage(Files.readAllBytes(text.toPath())));
+		File binary = File.createTempFile("pippin", "." + BinaryExecutable.EXTENSION);
+		try {
+			BinaryExecutable.toBinary(text, binary);
+			assertSameImage(Loader.loadImage(binary), Loader.loadImage(Files.readAllBytes(binary.toPath())));
+		} finally {
+			Files.deleteIfExists(binary.toPath());
+		}
+		try {
+			Loader.loadImage("1 5\n-1\n4\n".getBytes(StandardCharsets.US_ASCII));
+			fail("the bad line was loaded");
+		} catch(IllegalArgumentException e) {
+			assertEquals("NoSuchElementException on line 3", e.getMessage());
+		}
+	}
+}
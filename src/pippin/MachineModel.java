@@ -1,218 +1,55 @@
 package pippin;
 
-import java.util.Map;
+import java.nio.LongBuffer;
 import java.util.Observable;
-import java.util.TreeMap;
 
 public class MachineModel extends Observable {
-	public final Map<Integer, Instruction> INSTRUCTIONS = new TreeMap<>();
-	private Registers cpu = new Registers();
-	private Memory memory = new Memory();
+	private Memory memory;
+	private MachineState cpu;
 	private boolean withGUI = false;
 	private Code code = new Code();
 	private boolean running = false;
-
-	public class Registers {
-		private int accumulator;
-		private int programCounter;
-	}
+	private ExecutionEngine engine;
 
 	public MachineModel() {
 		this(false);
 	}
 
 	public MachineModel(boolean withGUI) {
-		this.withGUI = withGUI;
-
-		//INSTRUCTIONS entry for "NOP"
-		INSTRUCTIONS.put(0x0, arg -> {
-			cpu.programCounter++;
-		});
-
-		//INSTRUCTIONS entry for "LODI"
-		INSTRUCTIONS.put(0x1, arg -> {
-			cpu.accumulator = arg;
-			cpu.programCounter++;
-		});
-
-		//INSTRUCTIONS entry for "LOD"
-		INSTRUCTIONS.put(0x2, arg -> {
-			INSTRUCTIONS.get(0x1).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "LODN"
-		INSTRUCTIONS.put(0x3, arg -> {
-			INSTRUCTIONS.get(0x2).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "STO"
-		INSTRUCTIONS.put(0x4, arg -> {
-			memory.setData(arg, cpu.accumulator);
-			cpu.programCounter++;
-		});
-
-		//INSTRUCTIONS entry for "STON"
-		INSTRUCTIONS.put(0x5, arg -> {
-			INSTRUCTIONS.get(0x4).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "JMPI"
-		INSTRUCTIONS.put(0x6, arg -> {
-			cpu.programCounter = arg;
-		});
-
-		//INSTRUCTIONS entry for "JUMP"
-		INSTRUCTIONS.put(0x7, arg -> {
-			INSTRUCTIONS.get(0x6).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "JMZI"
-		INSTRUCTIONS.put(0x8, arg -> {
-			if(cpu.accumulator == 0) cpu.programCounter = arg;
-			else {cpu.programCounter++;}
-		});
-
-		//INSTRUCTIONS entry for "JMPZ"
-		INSTRUCTIONS.put(0x9, arg -> {
-			INSTRUCTIONS.get(0x8).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "ADDI"
-		INSTRUCTIONS.put(0xA, arg -> {
-			cpu.accumulator += arg;
-			cpu.programCounter++;
-		});
-
-		//INSTRUCTIONS entry for "ADD"
-		INSTRUCTIONS.put(0xB, arg -> {
-			INSTRUCTIONS.get(0xA).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "ADDN"
-		INSTRUCTIONS.put(0xC, arg -> {
-			INSTRUCTIONS.get(0xB).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "SUBI"
-		INSTRUCTIONS.put(0xD, arg -> {
-			cpu.accumulator -= arg;
-			cpu.programCounter++;
-		});
-
-		//INSTRUCTIONS entry for "SUB"
-		INSTRUCTIONS.put(0xE, arg -> {
-			INSTRUCTIONS.get(0xD).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "SUBN"
-		INSTRUCTIONS.put(0xF, arg -> {
-			INSTRUCTIONS.get(0xE).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "MULI"
-		INSTRUCTIONS.put(0x10, arg -> {
-			cpu.accumulator *= arg;
-			cpu.programCounter++;
-		});
-
-		//INSTRUCTIONS entry for "MUL"
-		INSTRUCTIONS.put(0x11, arg -> {
-			INSTRUCTIONS.get(0x10).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "MULN"
-		INSTRUCTIONS.put(0x12, arg -> {
-			INSTRUCTIONS.get(0x11).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "DIVI"
-		INSTRUCTIONS.put(0x13, arg -> {
-			if(arg == 0) throw new DivideByZeroException();
-			else {
-				cpu.accumulator /= arg;
-				cpu.programCounter++;
-			}
-		});
-
-		//INSTRUCTIONS entry for "DIV"
-		INSTRUCTIONS.put(0x14, arg -> {
-			INSTRUCTIONS.get(0x13).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "DIVN"
-		INSTRUCTIONS.put(0x15, arg -> {
-			INSTRUCTIONS.get(0x14).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "ANDI"
-		INSTRUCTIONS.put(0x16, arg -> {
-			if(arg != 0 && cpu.accumulator != 0) {
-				cpu.accumulator = 1;
-				cpu.programCounter++;
-			}
-			else {
-				cpu.accumulator = 0;
-				cpu.programCounter++;
-			}
-		});
-
-		//INSTRUCTIONS entry for "AND"
-		INSTRUCTIONS.put(0x17, arg -> {
-			INSTRUCTIONS.get(0x16).execute(memory.getData(arg));
-		});
-
-		//INSTRUCTIONS entry for "NOT"
-		INSTRUCTIONS.put(0x18, arg -> {
-			if(cpu.accumulator == 0) {
-				cpu.accumulator = 1;
-				cpu.programCounter++;
-			}
-			else {
-				cpu.accumulator = 0;
-				cpu.programCounter++;
-			}
-		});
-
-		//INSTRUCTIONS entry for "CMPL"
-		INSTRUCTIONS.put(0x19, arg -> {
-			if(memory.getData(arg) < 0) {
-				cpu.accumulator = 1;
-				cpu.programCounter++;
-			}
-			else {
-				cpu.accumulator = 0;
-				cpu.programCounter++;
-			}
-		});
-
-		//INSTRUCTIONS entry for "CMPZ"
-		INSTRUCTIONS.put(0x1A, arg -> {
-			if(memory.getData(arg) == 0) {
-				cpu.accumulator = 1;
-				cpu.programCounter++;
-			}
-			else {
-				cpu.accumulator = 0;
-				cpu.programCounter++;
-			}
-		});
-
-		//INSTRUCTION_MAP entry for "COPY"
-		INSTRUCTIONS.put(0x1D,(arg) -> {
-			copy(arg);
-			cpu.programCounter++;
-		});
-
-		//INSTRUCTION_MAP entry for "CPYN"
-		INSTRUCTIONS.put(0x1E, arg -> {
-			INSTRUCTIONS.get(0x1D).execute(memory.getData(arg));
-		});
+		this(withGUI, new Memory());
+	}
 
-		//INSTRUCTIONS entry for "HALT"
-		INSTRUCTIONS.put(0x1F, arg -> {
-			halt();
-		});
+	/**
+	 * Creates a model on a memory of any size and backend
+	 * @param withGUI false if HALT should exit the JVM, as for the other constructors
+	 * @param memory the data memory of the model
+	 */
+	public MachineModel(boolean withGUI, Memory memory) {
+		if(memory == null) throw new IllegalArgumentException("Coding error: the memory is null");
+		this.withGUI = withGUI;
+		this.memory = memory;
+		cpu = new MachineState(memory);
+	}
 
+	/**
+	 * Makes a child model that starts from the current state of this one, for
+	 * exploring what a program does from here without replaying it. The child
+	 * has its own registers and shares the code and the data memory pages with
+	 * this model copy-on-write: a page is only copied when one of the two models
+	 * writes to it. The child also shares the decoded program used by run().
+	 * @return the new model
+	 */
+	public MachineModel fork() {
+		MachineModel child = new MachineModel(withGUI, memory.fork());
+		child.code = code.share();
+		child.cpu.accumulator = cpu.accumulator;
+		child.cpu.programCounter = cpu.programCounter;
+		child.setFault(cpu.fault, cpu.faultProgramCounter);
+		child.running = running;
+		if(engine instanceof FastInterpreter) {
+			child.engine = new FastInterpreter(child, ((FastInterpreter)engine).getProgram());
+		}
+		return child;
 	}
 
 	public int getData(int index) {
@@ -221,9 +58,32 @@ public class MachineModel extends Observable {
 	public void setData(int index, int value) {
 		memory.setData(index, value);
 	}
+	/**
+	 * Looks up an instruction, bound to this model
+	 * @param key the opcode
+	 * @return the instruction, or null if key is not an opcode
+	 */
 	public Instruction get(Object key) {
-		return INSTRUCTIONS.get(key);
+		if(!(key instanceof Integer) || !InstructionSet.isDefined((Integer)key)) {
+			return null;
+		}
+		int op = (Integer)key;
+		return arg -> execute(op, arg);
 	}
+
+	private void execute(int op, int arg) {
+		if(!InstructionSet.execute(cpu, op, arg)) {
+			halt();
+		}
+	}
+
+	MachineState getState() {
+		return cpu;
+	}
+	/**
+	 * A copy of the data memory
+	 * @return the values of every address
+	 */
 	public int[] getData() {
 		return memory.getData();
 	}
@@ -240,6 +100,28 @@ public class MachineModel extends Observable {
 		cpu.programCounter = i;
 	}
 
+	/**
+	 * The fault register, set by the engines when a run ends in a run time error
+	 * @return the fault of the last run, or Fault.NONE
+	 */
+	public Fault getFault() {
+		return cpu.fault;
+	}
+
+	/**
+	 * The line that made the fault in the fault register
+	 * @return the program counter of the failing instruction, or -1 if there is
+	 * no fault
+	 */
+	public int getFaultProgramCounter() {
+		return cpu.faultProgramCounter;
+	}
+
+	void setFault(Fault fault, int programCounter) {
+		cpu.fault = fault;
+		cpu.faultProgramCounter = programCounter;
+	}
+
 	void halt() {
 		if(withGUI) {
 			running = false;
@@ -257,60 +139,56 @@ public class MachineModel extends Observable {
 		memory.clear();
 	}
 
+	/**
+	 * Clears the memory and registers but keeps the program, so that a model can
+	 * be reused to run the same program on another data set
+	 */
+	void reset() {
+		memory.clear();
+		cpu.accumulator = 0;
+		cpu.programCounter = 0;
+		setFault(Fault.NONE, -1);
+	}
+
 	Code getCode() {
 		return code;
 	}
 
+	Memory getMemory() {
+		return memory;
+	}
+
 	public void setCode(int op, int arg) {
 		code.setCode(op, arg);
+		engine = null;
+	}
+
+	/**
+	 * Appends packed instructions to the code, as the loaders do
+	 * @param words the words from the position to the limit of the buffer
+	 */
+	void appendCode(LongBuffer words) {
+		code.append(words);
+		engine = null;
 	}
 
 	/**
-	 * Copies from one part of data memory to another, allowing for the source and target 
-	 * locations to overlap. Takes values in memory in source range and copies them to 
-	 * memory locations specified in target range. The exception IllegalArgumentException 
-	 * is thrown if the source or target range of locations includes the indices arg thru
-	 * arg+2, or if the source range or target ranges go out of the memory addresses.
+	 * Copies from one part of data memory to another, as InstructionSet.copy does
 	 * @param arg the initial memory location to look at, contains value for source, allows
 	 * code to look up value for target location and length as well
 	 */
 	public void copy(int arg) {
+		InstructionSet.copy(memory, arg);
+	}
 
-		int source = memory.getData(arg);
-		int target = memory.getData(arg + 1);
-		int length = memory.getData(arg + 2);
-
-		// The Range class was created to make condition checks much cleaner; 
-		// see the Javadoc therein for full documentation.
-		Range sRange = new Range(source, source + length - 1);
-		Range tRange = new Range(target, target + length - 1);
-		Range addresses = new Range(0, Memory.DATA_SIZE - 1);
-
-		if (sRange.contains(arg) || sRange.contains(arg + 1) || sRange.contains(arg + 2) ||
-				tRange.contains(arg) || tRange.contains(arg + 1) || tRange.contains(arg + 2)) {
-			throw new IllegalArgumentException("The instruction would corrupt arg.");
-		}
-
-		if (!addresses.contains(source) || !addresses.contains(source + length) ||
-				!addresses.contains(target) || !addresses.contains(target + length)) {
-			throw new IllegalArgumentException("The source range or target range is outside"
-					+ " the range of memory addresses.");
-		}
-
-		// working down
-		if (source < target) {
-			for (int i = length, j = 1; i > 0; i--, j++) {
-				memory.setData(target + length - j, memory.getData(source + length - j));
-			}
-		}
-		
-		// working up
-		else {
-			for (int i = 0; i < length; i++) {
-				memory.setData(target + i, memory.getData(source + i));
-			}
-		}
-
+	/**
+	 * Does the work of copy without throwing, for the engines that record
+	 * faults instead of allocating exceptions
+	 * @param arg the initial memory location to look at
+	 * @return the fault, or NONE if the copy was made
+	 */
+	Fault copyData(int arg) {
+		return InstructionSet.copyData(memory, arg);
 	}
 	
 	public void step() {
@@ -318,7 +196,10 @@ public class MachineModel extends Observable {
 			int pc = cpu.programCounter;
 			int opcode = code.getOp(pc);
 			int arg = code.getArg(pc);
-			get(opcode).execute(arg);
+			if(!InstructionSet.isDefined(opcode)) {
+				throw Fault.ILLEGAL_INSTRUCTION.toException(pc);
+			}
+			execute(opcode, arg);
 		} catch (Exception e) {
 			halt();
 			throw e;
@@ -326,9 +207,44 @@ public class MachineModel extends Observable {
 		
 	}
 	
+	/**
+	 * Runs the loaded program in a tight loop until a HALT instruction is executed,
+	 * the program fails or maxSteps instructions have been retired. Unlike step(),
+	 * a HALT never exits the JVM and a failure is returned in the result rather
+	 * than thrown, so any number of programs can be run in one process. The
+	 * program is decoded for the FastInterpreter on the first run after it is
+	 * loaded.
+	 * @param maxSteps the most instructions to retire
+	 * @return the reason the run stopped, with the steps retired and the time taken
+	 */
+	public RunResult run(long maxSteps) {
+		if(engine == null) {
+			engine = new FastInterpreter(this);
+		}
+		return engine.run(maxSteps);
+	}
+
+	/**
+	 * Starts the model on a program image. Only the data memory is copied: the
+	 * code is shared with the image until it is changed and run() uses the
+	 * program the image has decoded already.
+	 * @param image the program and initial data to load
+	 */
+	public void load(ProgramImage image) {
+		if(image == null) throw new IllegalArgumentException("Coding error: the image is null");
+		code = image.newCode();
+		image.copyData(memory);
+		cpu.accumulator = 0;
+		cpu.programCounter = 0;
+		setFault(Fault.NONE, -1);
+		engine = new FastInterpreter(this, image.getDecodedProgram());
+	}
+
 	public void clear() {
+		engine = null;
 		memory.clear();
 		code.clear();
+		setFault(Fault.NONE, -1);
 		cpu.accumulator = 0;
 		cpu.programCounter = 0;
 		
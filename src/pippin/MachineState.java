@@ -0,0 +1,91 @@
+package pippin;
+
+import java.util.function.Supplier;
+
+/**
+ * The state of one machine: the accumulator, the program counter, the fault
+ * register and the data memory. It holds no code and no instructions, so many
+ * machines can run the same program through the stateless InstructionSet and a
+ * new machine costs little more than its memory.
+ */
+public class MachineState {
+	int accumulator;
+	int programCounter;
+	Fault fault = Fault.NONE;
+	int faultProgramCounter = -1;
+	private final Memory memory;
+
+	public MachineState() {
+		this(new Memory());
+	}
+
+	public MachineState(Memory memory) {
+		if(memory == null) throw new IllegalArgumentException("Coding error: the memory is null");
+		this.memory = memory;
+	}
+
+	public int getAccumulator() {
+		return accumulator;
+	}
+
+	public int getProgramCounter() {
+		return programCounter;
+	}
+
+	public Fault getFault() {
+		return fault;
+	}
+
+	public int getFaultProgramCounter() {
+		return faultProgramCounter;
+	}
+
+	public Memory getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Clears the memory and the registers
+	 */
+	public void reset() {
+		memory.clear();
+		accumulator = 0;
+		programCounter = 0;
+		fault = Fault.NONE;
+		faultProgramCounter = -1;
+	}
+
+	/**
+	 * Measures the heap used by each MachineState and each MachineModel and the
+	 * time taken to create them
+	 * @param args optionally the number of machines to create
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		for(int round = 0; round < 3; round++) {
+			measure("MachineState", count, () -> new MachineState());
+			measure("MachineModel", count, () -> new MachineModel());
+		}
+	}
+
+	private static void measure(String name, int count, Supplier<Object> factory) {
+		Object[] machines = new Object[count];
+		long before = usedMemory();
+		long start = System.nanoTime();
+		for(int i = 0; i < count; i++) {
+			machines[i] = factory.get();
+		}
+		long time = System.nanoTime() - start;
+		long after = usedMemory();
+		System.out.println(name + ": " + (after - before) / count + " bytes and "
+				+ time / count + " ns each, for " + machines.length + " machines");
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
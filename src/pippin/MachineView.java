@@ -8,15 +8,24 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Observable;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
@@ -40,6 +49,14 @@ public class MachineView extends Observable {
 	private Timer timer;
 	private File currentlyExecutingFile = null;
 	private boolean running = false;
+	private SourceWatcher watcher = null;
+	// the program last read from currentlyExecutingFile, which is read again
+	// only when the file has changed
+	private ProgramImage loadedImage = null;
+	private File loadedFile = null;
+	private long loadedModified;
+	private long loadedLength;
+	private byte[] loadedDigest;
 
 	public MachineView(MachineModel model) {
 		this.model = model;
@@ -66,43 +83,8 @@ public class MachineView extends Observable {
 
 	public void step() {
 		if(model.isRunning()) {
-			try {
-				model.step();
-			} catch (CodeAccessException e) {
-				JOptionPane.showMessageDialog(
-						frame, 
-						"Program error from line " + getProgramCounter() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-			} catch (ArrayIndexOutOfBoundsException e) {
-				JOptionPane.showMessageDialog(
-						frame, 
-						"Program error from line " + getProgramCounter() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-			} catch (NullPointerException e) {
-				JOptionPane.showMessageDialog(
-						frame, 
-						"Program error from line " + getProgramCounter() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-			} catch (IllegalArgumentException e) {
-				JOptionPane.showMessageDialog(
-						frame, 
-						"Program error from line " + getProgramCounter() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-			} catch (DivideByZeroException e) {
-				JOptionPane.showMessageDialog(
-						frame, 
-						"Program error from line " + getProgramCounter() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
+			if(model.run(1).getReason() == HaltReason.FAULT) {
+				showFault();
 			}
 
 			setChanged();
@@ -229,9 +211,7 @@ public class MachineView extends Observable {
 	}
 
 	public void reload() {
-		clearAll();
 		finalLoad_ReloadStep();
-
 	}
 
 	/**
@@ -288,21 +268,42 @@ public class MachineView extends Observable {
 				} catch (Exception e) {
 					System.out.println("Error writing properties file");
 				}
-				StringBuilder builder = new StringBuilder();
-				int ret = Assembler.assemble(source, outputExe, builder); 
-				if (ret == 0) {
-					JOptionPane.showMessageDialog(
-							frame, 
-							"The source was assembled to an executable",
-							"Success",
-							JOptionPane.INFORMATION_MESSAGE);
-				} else {
-					JOptionPane.showMessageDialog(
-							frame, 
-							builder.toString(),
-							"Failure on line " + ret,
-							JOptionPane.INFORMATION_MESSAGE);
-				}
+				// the assembler runs off the Swing thread, which shows the result
+				// when it is done
+				File input = source;
+				File output = outputExe;
+				new SwingWorker<Integer, Void>() {
+					private StringBuilder builder = new StringBuilder();
+
+					@Override
+					protected Integer doInBackground() {
+						return Assembler.assemble(input, output, builder);
+					}
+
+					@Override
+					protected void done() {
+						int ret;
+						try {
+							ret = get();
+						} catch (InterruptedException | ExecutionException e) {
+							builder.append("Unable to assemble the program: " + e.getCause());
+							ret = -1;
+						}
+						if (ret == 0) {
+							JOptionPane.showMessageDialog(
+									frame, 
+									"The source was assembled to an executable",
+									"Success",
+									JOptionPane.INFORMATION_MESSAGE);
+						} else {
+							JOptionPane.showMessageDialog(
+									frame, 
+									builder.toString(),
+									"Failure on line " + ret,
+									JOptionPane.INFORMATION_MESSAGE);
+						}
+					}
+				}.execute();
 			} else {// outputExe Still null
 				JOptionPane.showMessageDialog(
 						frame, 
@@ -321,10 +322,81 @@ public class MachineView extends Observable {
 		}
 	}
 
+	public boolean isWatching() {
+		return watcher != null;
+	}
+
+	/**
+	 * Turns watch mode on or off. In watch mode every source saved in the
+	 * source directory is assembled to the executable directory when it
+	 * changes, and the program that is loaded is reloaded when its executable
+	 * is written, whether by the watcher or by anything else.
+	 * @param b true to start watching, false to stop
+	 */
+	public void setWatching(boolean b) {
+		try {
+			if(b && watcher == null) {
+				watcher = new SourceWatcher(SourceWatcher.DEFAULT_DELAY_MILLIS,
+						report -> SwingUtilities.invokeLater(() -> assembled(report)),
+						file -> SwingUtilities.invokeLater(() -> executableChanged(file)));
+				watcher.watch(new File(sourceDir), new File(executableDir));
+			} else if(!b && watcher != null) {
+				watcher.close();
+				watcher = null;
+			}
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(
+					frame, 
+					"The directories cannot be watched.\n" + e.getMessage(),
+					"Warning",
+					JOptionPane.OK_OPTION);
+			if(watcher != null) {
+				try {
+					watcher.close();
+				} catch (IOException e1) {
+					// nothing more to do
+				}
+				watcher = null;
+			}
+		}
+		setChanged();
+		notifyObservers();
+	}
+
+	// Only the errors in the source of the loaded program are shown, the
+	// others would interrupt the user for files they are not running
+	private void assembled(AssemblyReport report) {
+		if(report.isSuccess() || !isLoaded(report.getOutput())) return;
+		StringBuilder builder = new StringBuilder();
+		if(report.getFailure() != null) {
+			builder.append(report.getFailure());
+		}
+		for(Diagnostic diagnostic : report.getDiagnostics()) {
+			if(builder.length() > 0) builder.append('\n');
+			builder.append(diagnostic.getMessage());
+		}
+		JOptionPane.showMessageDialog(
+				frame, 
+				builder.toString(),
+				"Failure assembling " + report.getSource().getName(),
+				JOptionPane.INFORMATION_MESSAGE);
+	}
+
+	private void executableChanged(File file) {
+		if(isLoaded(file)) {
+			finalLoad_ReloadStep();
+		}
+	}
+
+	private boolean isLoaded(File file) {
+		return currentlyExecutingFile != null && state != States.NOTHING_LOADED
+				&& currentlyExecutingFile.getAbsoluteFile().equals(file.getAbsoluteFile());
+	}
+
 	public void loadFile() {
 		JFileChooser chooser = new JFileChooser(executableDir);
 		FileNameExtensionFilter filter = new FileNameExtensionFilter(
-				"Pippin Executable Files", "pexe");
+				"Pippin Executable Files", "pexe", BinaryExecutable.EXTENSION);
 		chooser.setFileFilter(filter);
 		// CODE TO LOAD DESIRED FILE
 		int openOK = chooser.showOpenDialog(null);
@@ -351,7 +423,7 @@ public class MachineView extends Observable {
 
 	public void finalLoad_ReloadStep() {
 		clearAll();
-		String str = Loader.load(model, currentlyExecutingFile);
+		String str = loadProgram();
 		model.setRunning(true);
 		setRunning(true);
 		setAutoStepOn(false);
@@ -368,6 +440,53 @@ public class MachineView extends Observable {
 		}
 	}
 
+	/**
+	 * Loads currentlyExecutingFile into the model from the image kept when it
+	 * was last read, so a reload is a copy in memory. If its time or length has
+	 * changed the file is read once, and the image is made again from the bytes
+	 * that were read only if their hash is not the same as before.
+	 * @return "success", or the reason the file could not be loaded, or null
+	 * if there is no file
+	 */
+	private String loadProgram() {
+		if(currentlyExecutingFile == null) return null;
+		File file = currentlyExecutingFile.getAbsoluteFile();
+		try {
+			boolean same = loadedImage != null && file.equals(loadedFile);
+			if(!same || file.lastModified() != loadedModified || file.length() != loadedLength) {
+				long modified = file.lastModified();
+				long length = file.length();
+				byte[] contents = Files.readAllBytes(file.toPath());
+				byte[] digest = digest(contents);
+				if(!same || digest == null || !Arrays.equals(digest, loadedDigest)) {
+					loadedImage = null;
+					loadedImage = Loader.loadImage(contents);
+					loadedFile = file;
+					loadedDigest = digest;
+				}
+				// a file that was only touched keeps its image
+				loadedModified = modified;
+				loadedLength = length;
+			}
+			model.load(loadedImage);
+			return "success";
+		} catch (NoSuchFileException e) {
+			return "File " + file.getName() + " Not Found";
+		} catch (IOException e) {
+			return "File " + file.getName() + " " + e.getMessage();
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+
+	private static byte[] digest(byte[] contents) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(contents);
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
 	void halt() {
 		setRunning(false);
 	}
@@ -402,6 +521,15 @@ public class MachineView extends Observable {
 	}
 
 
+	private void showFault() {
+		JOptionPane.showMessageDialog(
+				frame, 
+				"Program error from line " + model.getFaultProgramCounter() + "\n"
+						+ "Exception message: " + model.getFault().getMessage(),
+						"Run time error",
+						JOptionPane.OK_OPTION);
+	}
+
 	public boolean isAutoStepOn() {
 		return autoStepOn;
 	}
@@ -409,43 +537,8 @@ public class MachineView extends Observable {
 	public void execute() {
 		while(running) {
 			if(model.isRunning()) {
-				try {
-					model.step();
-				} catch (CodeAccessException e) {
-					JOptionPane.showMessageDialog(
-							frame, 
-							"Program error from line " + getProgramCounter() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Run time error",
-									JOptionPane.OK_OPTION);
-				} catch (ArrayIndexOutOfBoundsException e) {
-					JOptionPane.showMessageDialog(
-							frame, 
-							"Program error from line " + getProgramCounter() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Run time error",
-									JOptionPane.OK_OPTION);
-				} catch (NullPointerException e) {
-					JOptionPane.showMessageDialog(
-							frame, 
-							"Program error from line " + getProgramCounter() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Run time error",
-									JOptionPane.OK_OPTION);
-				} catch (IllegalArgumentException e) {
-					JOptionPane.showMessageDialog(
-							frame, 
-							"Program error from line " + getProgramCounter() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Run time error",
-									JOptionPane.OK_OPTION);
-				} catch (DivideByZeroException e) {
-					JOptionPane.showMessageDialog(
-							frame, 
-							"Program error from line " + getProgramCounter() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Run time error",
-									JOptionPane.OK_OPTION);
+				if(model.run(Long.MAX_VALUE).getReason() == HaltReason.FAULT) {
+					showFault();
 				}
 			} else {
 				halt();
@@ -0,0 +1,76 @@
+package pippin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A backend mapped onto a file, so the memory of a run persists after the JVM
+ * exits and other processes can read it while the program runs. The file holds
+ * the cells in address order as 4-byte big-endian ints and is created or
+ * extended to size cells. A fork copies the memory off the heap instead of
+ * writing to the file.
+ */
+public class MappedFileBackend implements MemoryBackend {
+	private final int size;
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * Maps a file as a memory of size cells
+	 * @param file the file, which keeps the values it already holds
+	 * @param size the number of cells
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public MappedFileBackend(File file, int size) throws IOException {
+		if(size <= 0 || size > Integer.MAX_VALUE / Integer.BYTES) {
+			throw new IllegalArgumentException("Coding error: the size " + size + " is out of range");
+		}
+		this.size = size;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)size * Integer.BYTES);
+		}
+		buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int get(int index) {
+		return buffer.getInt(index << 2);
+	}
+
+	@Override
+	public void set(int index, int value) {
+		buffer.putInt(index << 2, value);
+	}
+
+	@Override
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			buffer.putInt(i << 2, 0);
+		}
+	}
+
+	@Override
+	public MemoryBackend fork() {
+		OffHeapBackend copy = new OffHeapBackend(size);
+		for(int i = 0; i < size; i++) {
+			copy.set(i, get(i));
+		}
+		return copy;
+	}
+
+	/**
+	 * Writes the changed values to the file
+	 */
+	public void force() {
+		buffer.force();
+	}
+}
@@ -1,31 +1,166 @@
 package pippin;
 
+/**
+ * The data memory of a machine. The cells are kept by a MemoryBackend, which is
+ * an ArrayBackend of DATA_SIZE cells unless another backend is given, so the
+ * size and the storage can be chosen for each machine. Every address is checked
+ * against the size of the backend, and an address outside it throws the
+ * ArrayIndexOutOfBoundsException a single array would. A SparseBackend covers
+ * the whole 32-bit address space, so no address is outside it.
+ */
 public class Memory {
+	/** the size of the memory of a machine made without a backend */
 	public final static int DATA_SIZE = 512;
-	private int[] data = new int[DATA_SIZE];
+	public final static int PAGE_SIZE = ArrayBackend.PAGE_SIZE;
+	private final MemoryBackend backend;
+	private final long size;
 	private int changedIndex = -1;
 
+	public Memory() {
+		this(new ArrayBackend(DATA_SIZE));
+	}
+
+	/**
+	 * Creates a memory of size cells on the heap
+	 * @param size the number of cells
+	 */
+	public Memory(int size) {
+		this(new ArrayBackend(size));
+	}
+
+	public Memory(MemoryBackend backend) {
+		if(backend == null) throw new IllegalArgumentException("Coding error: the backend is null");
+		this.backend = backend;
+		size = backend.size();
+	}
+
 	public int getData(int index) {
-		return data[index];
+		check(index);
+		return backend.get(index);
+	}
+
+	/**
+	 * Checks an address before it is used, so that an engine can record a fault
+	 * instead of catching the exception thrown by getData or setData
+	 * @param index the address to check
+	 * @return true if index is an address in the memory
+	 */
+	public boolean contains(int index) {
+		return Integer.toUnsignedLong(index) < size;
+	}
+
+	private void check(int index) {
+		if(Integer.toUnsignedLong(index) >= size) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index
+					+ " out of bounds for length " + size);
+		}
 	}
 
 	public void setData(int index, int value) {
-		data[index] = value;
+		check(index);
+		backend.set(index, value);
 		changedIndex = index;
 	}
 
+	/**
+	 * Sets consecutive cells at once, which is how the loaders fill memory. The
+	 * changed index is set once, to the last cell.
+	 * @param start the address of the first cell
+	 * @param values the array holding the values
+	 * @param offset the index in values of the first value
+	 * @param length the number of cells to set
+	 * @throws ArrayIndexOutOfBoundsException for the first address outside the
+	 * memory, before any cell is set
+	 */
+	public void setData(int start, int[] values, int offset, int length) {
+		if(length == 0) return;
+		check(start);
+		int last = start + length - 1;
+		if(!contains(last)) {
+			// start is inside, so the first address outside is the size
+			throw new ArrayIndexOutOfBoundsException("Index " + (int)size
+					+ " out of bounds for length " + size);
+		}
+		backend.set(start, values, offset, length);
+		changedIndex = last;
+	}
+
+	/**
+	 * The number of addresses in the memory
+	 * @return the size of the backend, up to 2^32
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public MemoryBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Makes a memory with the same contents. With an ArrayBackend the two
+	 * memories share every page until one of them writes to it.
+	 * @return the new memory
+	 */
+	public Memory fork() {
+		Memory child = new Memory(backend.fork());
+		child.changedIndex = changedIndex;
+		return child;
+	}
+
+	/**
+	 * The number of pages this memory has not copied since it was forked
+	 * @return the count of pages shared copy-on-write
+	 */
+	public int getSharedPageCount() {
+		return backend.getSharedPageCount();
+	}
+
+	/**
+	 * A copy of the whole memory, or of the first DATA_SIZE cells of a memory
+	 * too large for an array, which is the part the views show
+	 * @return the values in address order
+	 */
 	int[] getData() {
+		int length = size <= Integer.MAX_VALUE ? (int)size : DATA_SIZE;
+		int[] data = new int[length];
+		for(int i = 0; i < length; i++) {
+			data[i] = backend.get(i);
+		}
 		return data;
 	}
 
+	/**
+	 * Replaces the whole memory, which is how a ProgramImage starts a run. The
+	 * cells after the end of values are cleared.
+	 * @param values the values to copy, which must fit in the memory
+	 * @param changed the changed index to report
+	 */
+	void load(int[] values, int changed) {
+		if(values.length > size) {
+			throw new ArrayIndexOutOfBoundsException("Index " + (values.length - 1)
+					+ " out of bounds for length " + size);
+		}
+		backend.clear();
+		backend.set(0, values, 0, values.length);
+		changedIndex = changed;
+	}
+
+	/**
+	 * A hash of the data, so runs can be compared without keeping the whole
+	 * memory
+	 * @return the checksum of the backend
+	 */
+	public long checksum() {
+		return backend.checksum();
+	}
+
 	public int getChangedIndex() {
 		return changedIndex;
 	}
-	
+
 	public void clear() {
-        for(int i = 0; i < DATA_SIZE; i++) {
-            data[i] = 0;
-        }
+		backend.clear();
         changedIndex = -1;
     }
 }
@@ -0,0 +1,65 @@
+package pippin;
+
+/**
+ * The storage behind a Memory. Memory checks every address against size() before
+ * it calls get or set, so a backend never sees an address outside its range. The
+ * addresses are compared as unsigned ints, so a backend of size 2^32 takes every
+ * int as an address, with the negative ints above 0x7FFFFFFF.
+ */
+public interface MemoryBackend {
+
+	/**
+	 * The number of cells in the backend
+	 * @return the size, which never changes and is at most 2^32
+	 */
+	long size();
+
+	int get(int index);
+
+	void set(int index, int value);
+
+	/**
+	 * Sets consecutive cells, all of which Memory has checked are in range
+	 * @param start the address of the first cell
+	 * @param values the array holding the values
+	 * @param offset the index in values of the first value
+	 * @param length the number of cells to set
+	 */
+	default void set(int start, int[] values, int offset, int length) {
+		for(int i = 0; i < length; i++) {
+			set(start + i, values[offset + i]);
+		}
+	}
+
+	/**
+	 * Sets every cell to 0
+	 */
+	void clear();
+
+	/**
+	 * Makes an independent backend with the same contents, which may share
+	 * storage with this one copy-on-write
+	 * @return the new backend
+	 */
+	MemoryBackend fork();
+
+	/**
+	 * A 64-bit FNV-1a hash of the cells in address order
+	 * @return the hash
+	 */
+	default long checksum() {
+		long hash = 0xcbf29ce484222325L;
+		for(long i = 0; i < size(); i++) {
+			hash = (hash ^ get((int)i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * The number of pages still shared with another backend after a fork
+	 * @return the count of shared pages, 0 for a backend that copies on fork
+	 */
+	default int getSharedPageCount() {
+		return 0;
+	}
+}
@@ -0,0 +1,157 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class MemoryTester {
+
+	private int[] runQsort(Memory memory) {
+		MachineModel machine = new MachineModel(true, memory);
+		assertEquals("success", Loader.load(machine, new File("test/qsort.pexe")));
+		machine.setRunning(true);
+		assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+		return machine.getData();
+	}
+
+	@Test
+	public void testBackendsAgree() throws IOException {
+		int[] expected = runQsort(new Memory());
+		assertArrayEquals(expected, runQsort(new Memory(new OffHeapBackend(Memory.DATA_SIZE))));
+		File file = File.createTempFile("pippin", ".mem");
+		try {
+			MappedFileBackend mapped = new MappedFileBackend(file, Memory.DATA_SIZE);
+			assertArrayEquals(expected, runQsort(new Memory(mapped)));
+			mapped.force();
+			// another mapping of the file sees the memory of the run
+			Memory reopened = new Memory(new MappedFileBackend(file, Memory.DATA_SIZE));
+			assertArrayEquals(expected, reopened.getData());
+		} finally {
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	@Test
+	public void testSize() {
+		Memory memory = new Memory(1000);
+		memory.setData(999, 7);
+		assertEquals(7, memory.getData(999));
+		assertEquals(false, memory.contains(1000));
+	}
+
+	@Test(expected=ArrayIndexOutOfBoundsException.class)
+	public void testOutsideSize() {
+		new Memory(new OffHeapBackend(10)).setData(10, 1);
+	}
+
+	@Test
+	// only the pages that are written are copied
+	public void testForkCopyOnWrite() {
+		Memory parent = new Memory();
+		parent.setData(3, 30);
+		Memory child = parent.fork();
+		child.setData(3, 31);
+		parent.setData(Memory.PAGE_SIZE, 64);
+		assertEquals(30, parent.getData(3));
+		assertEquals(31, child.getData(3));
+		assertEquals(0, child.getData(Memory.PAGE_SIZE));
+		assertEquals(Memory.DATA_SIZE / Memory.PAGE_SIZE - 1, child.getSharedPageCount());
+	}
+
+	@Test
+	// the flat cells are paged by the first fork, including a last page that
+	// is only partly inside the memory
+	public void testForkPagesFlatCells() {
+		Memory parent = new Memory(100);
+		assertEquals(0, parent.getSharedPageCount());
+		for(int i = 0; i < 100; i++) {
+			parent.setData(i, i + 1);
+		}
+		int[] expected = parent.getData();
+		Memory child = parent.fork();
+		assertEquals(2, parent.getSharedPageCount());
+		assertEquals(2, child.getSharedPageCount());
+		assertArrayEquals(expected, parent.getData());
+		assertArrayEquals(expected, child.getData());
+		child.setData(99, 0);
+		assertEquals(100, parent.getData(99));
+		assertEquals(1, child.getSharedPageCount());
+		assertEquals(2, parent.getSharedPageCount());
+	}
+
+	private MachineModel sparseProgram() {
+		MachineModel machine = new MachineModel(true, new Memory(new SparseBackend()));
+		machine.setCode(0x1, 5); // LODI 5
+		machine.setCode(0x4, 0x7FFF0000); // STO 7FFF0000
+		machine.setCode(0x2, 0x7FFF0000); // LOD 7FFF0000
+		machine.setCode(0xA, 1); // ADDI 1
+		machine.setCode(0x4, -1); // STO FFFFFFFF
+		machine.setCode(0x1D, 0x100000); // COPY 100000
+		machine.setCode(0x1F, 0); // HALT
+		// copy the 2 cells at 7FFF0000 to 40000000
+		machine.setData(0x100000, 0x7FFF0000);
+		machine.setData(0x100001, 0x40000000);
+		machine.setData(0x100002, 2);
+		machine.setRunning(true);
+		return machine;
+	}
+
+	private void checkSparse(MachineModel machine) {
+		assertEquals(5, machine.getData(0x7FFF0000));
+		assertEquals(6, machine.getData(-1));
+		assertEquals(5, machine.getData(0x40000000));
+		assertEquals(0, machine.getData(0x12345678));
+		assertEquals(4, ((SparseBackend)machine.getMemory().getBackend()).getResidentPageCount());
+	}
+
+	@Test
+	// the engines and COPY work on addresses anywhere in the 32-bit space
+	public void testSparse() {
+		MachineModel machine = sparseProgram();
+		assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+		checkSparse(machine);
+		machine = sparseProgram();
+		JitCompiler.compile(machine).execute();
+		checkSparse(machine);
+		machine = sparseProgram();
+		while(machine.isRunning()) {
+			machine.step();
+		}
+		checkSparse(machine);
+	}
+
+	@Test
+	// the ranges cross 7FFFFFFF, where a signed source + length wraps and a
+	// signed compare would copy upward over the cells still to be read
+	public void testSparseCopyUnsigned() {
+		Memory memory = new Memory(new SparseBackend());
+		for(int i = 0; i < 4; i++) {
+			memory.setData(0x7FFFFFFE + i, i + 1);
+		}
+		memory.setData(0x100, 0x7FFFFFFE);
+		memory.setData(0x101, 0x80000000);
+		memory.setData(0x102, 4);
+		assertEquals(Fault.NONE, InstructionSet.copyData(memory, 0x100));
+		assertEquals(1, memory.getData(0x7FFFFFFE));
+		assertEquals(2, memory.getData(0x7FFFFFFF));
+		for(int i = 0; i < 4; i++) {
+			assertEquals(i + 1, memory.getData(0x80000000 + i));
+		}
+
+		// the last cell of the address space is the end of a range, but one
+		// cell more is past it
+		memory.setData(0x100, -4);
+		memory.setData(0x101, 0x200);
+		assertEquals(Fault.NONE, InstructionSet.copyData(memory, 0x100));
+		memory.setData(0x100, -3);
+		assertEquals(Fault.COPY_RANGE, InstructionSet.copyData(memory, 0x100));
+		// a range over the args
+		memory.setData(0x100, 0xFE);
+		assertEquals(Fault.COPY_OVERLAP, InstructionSet.copyData(memory, 0x100));
+	}
+}
@@ -6,6 +6,7 @@ import java.awt.event.KeyEvent;
 import java.util.Observable;
 import java.util.Observer;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.KeyStroke;
@@ -13,6 +14,7 @@ import javax.swing.KeyStroke;
 public class MenuBarBuilder implements Observer {
 	private JMenuItem assemble = new JMenuItem("Assemble Source...");
 	private JMenuItem load = new JMenuItem("Load Program...");
+	private JCheckBoxMenuItem watch = new JCheckBoxMenuItem("Watch Sources");
 	private JMenuItem exit = new JMenuItem("Exit");
 	private JMenuItem go = new JMenuItem("Go");
 	private MachineView machineView;
@@ -35,6 +37,9 @@ public class MenuBarBuilder implements Observer {
 				KeyEvent.VK_L, ActionEvent.CTRL_MASK));
 		load.addActionListener(e -> machineView.loadFile());
 		returnMenu.add(load);
+		watch.setMnemonic(KeyEvent.VK_W);
+		watch.addActionListener(e -> machineView.setWatching(watch.isSelected()));
+		returnMenu.add(watch);
 		returnMenu.addSeparator(); // puts a line across the menu
 		exit.setMnemonic(KeyEvent.VK_E);
 		exit.setAccelerator(KeyStroke.getKeyStroke(
@@ -60,6 +65,7 @@ public class MenuBarBuilder implements Observer {
 	public void update(Observable arg0, Object arg1) {
 		assemble.setEnabled(machineView.getState().getAssembleFileActive());
 		load.setEnabled(machineView.getState().getLoadFileActive());
+		watch.setSelected(machineView.isWatching());
 		go.setEnabled(machineView.getState().getStepActive());
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package pippin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A backend in a direct ByteBuffer, outside the Java heap, so a large memory adds
+ * nothing to the work of the garbage collector. A fork copies the whole buffer.
+ */
+public class OffHeapBackend implements MemoryBackend {
+	private final int size;
+	private final ByteBuffer buffer;
+
+	public OffHeapBackend(int size) {
+		if(size <= 0 || size > Integer.MAX_VALUE / Integer.BYTES) {
+			throw new IllegalArgumentException("Coding error: the size " + size + " is out of range");
+		}
+		this.size = size;
+		buffer = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int get(int index) {
+		return buffer.getInt(index << 2);
+	}
+
+	@Override
+	public void set(int index, int value) {
+		buffer.putInt(index << 2, value);
+	}
+
+	@Override
+	public void set(int start, int[] values, int offset, int length) {
+		IntBuffer cells = buffer.asIntBuffer();
+		cells.position(start);
+		cells.put(values, offset, length);
+	}
+
+	@Override
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			buffer.putInt(i << 2, 0);
+		}
+	}
+
+	@Override
+	public MemoryBackend fork() {
+		OffHeapBackend copy = new OffHeapBackend(size);
+		for(int i = 0; i < size; i++) {
+			copy.buffer.putInt(i << 2, buffer.getInt(i << 2));
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,96 @@
+package pippin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads an assembly source a line at a time into a reused char array, with the
+ * line ends that Scanner.nextLine recognizes: \r\n, \n, \r and the Unicode
+ * line separator, paragraph separator and next line. A line end at the end of
+ * the input does not start another line. Nothing is allocated per line.
+ */
+final class PasmReader implements Closeable {
+	private final Readable input;
+	private final char[] buffer = new char[8192];
+	private final CharBuffer chars = CharBuffer.wrap(buffer);
+	private int position;
+	private int limit;
+	private char[] line = new char[128];
+	private int length;
+	private int lineNumber;
+
+	/**
+	 * Reads from a Reader, or from a CharBuffer wrapping a CharSequence
+	 * @param input the source, which close closes if it is Closeable
+	 */
+	PasmReader(Readable input) {
+		this.input = input;
+	}
+
+	/**
+	 * Reads the next line
+	 * @return false if there are no more lines
+	 * @throws IOException if the input cannot be read
+	 */
+	boolean nextLine() throws IOException {
+		length = 0;
+		int c = read();
+		if(c < 0) return false;
+		while(c >= 0 && !isLineEnd(c)) {
+			if(length == line.length) line = Arrays.copyOf(line, 2 * line.length);
+			line[length++] = (char)c;
+			c = read();
+		}
+		if(c == '\r' && peek() == '\n') read();
+		lineNumber++;
+		return true;
+	}
+
+	/**
+	 * The characters of the line, which are replaced by the next call of nextLine
+	 * @return an array holding the line from index 0 to getLength()
+	 */
+	char[] getLine() {
+		return line;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * The number of the line that was read last
+	 * @return the line number, starting at 1
+	 */
+	int getLineNumber() {
+		return lineNumber;
+	}
+
+	private static boolean isLineEnd(int c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+	}
+
+	private int read() throws IOException {
+		int c = peek();
+		if(c >= 0) position++;
+		return c;
+	}
+
+	private int peek() throws IOException {
+		while(position == limit) {
+			chars.clear();
+			int count = input.read(chars);
+			if(count < 0) return -1;
+			position = 0;
+			limit = count;
+		}
+		return buffer[position];
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(input instanceof Closeable) ((Closeable)input).close();
+	}
+}
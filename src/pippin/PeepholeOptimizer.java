@@ -0,0 +1,414 @@
+package pippin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rewrites a program into a shorter one that leaves the same data, changed
+ * index and accumulator and ends in the same way. It repeats these rewrites
+ * until none applies:
+ * <ul>
+ * <li>a JMPI or JMZI to a JMPI, or a JMZI to a JMZI, jumps to the final target,
+ * and a JMPI to a HALT becomes a HALT</li>
+ * <li>code that no path from instruction 0 reaches is removed</li>
+ * <li>NOP, ADDI 0, SUBI 0 and a jump to the next instruction are removed</li>
+ * <li>the LOD x of STO x; LOD x is removed</li>
+ * <li>a chain of ADDI and SUBI becomes one ADDI</li>
+ * <li>LODI c followed by LODI, ADDI, SUBI, MULI, DIVI, ANDI or NOT becomes one
+ * LODI, so LODI 0; ADDI k becomes LODI k</li>
+ * <li>an instruction that only changes the accumulator is removed before a
+ * LODI</li>
+ * </ul>
+ * Two instructions are only combined when the second is not a jump target, and
+ * the jumps are changed to the new addresses. JUMP and JMPZ take their targets
+ * from data memory, where any value may be the address of an instruction, so in
+ * a program with either of them no instruction is moved and only the jumps are
+ * threaded. An instruction that can fault is never removed, but a fault may be
+ * reported at another address. Stores are never removed, since each one moves
+ * the changed index.
+ * <p>
+ * RewriteRules, such as those found by Superoptimizer, can be given as well.
+ * A rule is applied where its pattern matches and no instruction after the
+ * first is a jump target, and only if its addresses are inside the memory the
+ * program runs in, since a rule may leave out an access that would fault.
+ */
+public final class PeepholeOptimizer {
+	private static final int NOP = 0x0;
+	private static final int LODI = 0x1;
+	private static final int LOD = 0x2;
+	private static final int STO = 0x4;
+	private static final int JMPI = 0x6;
+	private static final int JUMP = 0x7;
+	private static final int JMZI = 0x8;
+	private static final int JMPZ = 0x9;
+	private static final int ADDI = 0xA;
+	private static final int SUBI = 0xD;
+	private static final int MULI = 0x10;
+	private static final int DIVI = 0x13;
+	private static final int ANDI = 0x16;
+	private static final int NOT = 0x18;
+	private static final int HALT = InstructionSet.HALT;
+
+	private int size;
+	private int[] ops;
+	private int[] args;
+	private boolean[] targets;
+	private boolean[] removed;
+	private boolean fixedLayout;
+	private List<RewriteRule> rules;
+	private long memorySize;
+
+	private PeepholeOptimizer(Code code, List<RewriteRule> rules, long memorySize) {
+		this.rules = rules;
+		this.memorySize = memorySize;
+		size = code.getProgramSize();
+		ops = new int[size];
+		args = new int[size];
+		for(int i = 0; i < size; i++) {
+			ops[i] = code.getOp(i);
+			args[i] = code.getArg(i);
+			if(ops[i] == JUMP || ops[i] == JMPZ) fixedLayout = true;
+		}
+	}
+
+	/**
+	 * Optimizes a program
+	 * @param code the program, which is not changed
+	 * @return the new program
+	 */
+	public static Code optimize(Code code) {
+		return optimize(code, Collections.emptyList());
+	}
+
+	/**
+	 * Optimizes a program with rules as well as the rewrites of the optimizer,
+	 * for a memory of Memory.DATA_SIZE cells
+	 * @param code the program, which is not changed
+	 * @param rules the rules to apply
+	 * @return the new program
+	 */
+	public static Code optimize(Code code, List<RewriteRule> rules) {
+		return optimize(code, rules, Memory.DATA_SIZE);
+	}
+
+	/**
+	 * Optimizes a program with rules for the memory it will run in
+	 * @param code the program, which is not changed
+	 * @param rules the rules to apply
+	 * @param memorySize the size of the memory, from Memory.getSize()
+	 * @return the new program
+	 */
+	public static Code optimize(Code code, List<RewriteRule> rules, long memorySize) {
+		if(code == null) throw new IllegalArgumentException("Coding error: the code is null");
+		PeepholeOptimizer optimizer = new PeepholeOptimizer(code, rules, memorySize);
+		while(optimizer.pass()) {
+		}
+		Code result = new Code(optimizer.size);
+		for(int i = 0; i < optimizer.size; i++) {
+			result.setCode(optimizer.ops[i], optimizer.args[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Optimizes the program of an image
+	 * @param image the program and its data
+	 * @return an image of the new program with the same data
+	 */
+	public static ProgramImage optimize(ProgramImage image) {
+		return optimize(image, Collections.emptyList());
+	}
+
+	/**
+	 * Optimizes the program of an image with rules
+	 * @param image the program and its data
+	 * @param rules the rules to apply
+	 * @return an image of the new program with the same data
+	 */
+	public static ProgramImage optimize(ProgramImage image, List<RewriteRule> rules) {
+		if(image == null) throw new IllegalArgumentException("Coding error: the image is null");
+		return image.withCode(optimize(image.newCode(), rules, image.getDataSize()));
+	}
+
+	// Makes one round of rewrites and removes the instructions they leave out
+	private boolean pass() {
+		targets = new boolean[size];
+		removed = new boolean[size];
+		for(int i = 0; i < size; i++) {
+			if(isDirectJump(ops[i]) && args[i] >= 0 && args[i] < size) {
+				targets[args[i]] = true;
+			}
+		}
+		boolean changed = threadJumps();
+		if(fixedLayout) return changed;
+		changed |= removeUnreachable();
+		for(int i = 0; i < size; i++) {
+			if(!removed[i] && isNoOp(i)) {
+				removed[i] = true;
+				changed = true;
+			}
+		}
+		for(int i = 0; i < size - 1; i++) {
+			if(!removed[i] && !removed[i + 1] && combine(i, i + 1)) {
+				changed = true;
+				i++;
+			}
+		}
+		for(int i = 0; i < size; i++) {
+			if(!removed[i]) {
+				int length = applyRule(i);
+				if(length > 0) {
+					changed = true;
+					i += length - 1;
+				}
+			}
+		}
+		if(changed) compact();
+		return changed;
+	}
+
+	private boolean threadJumps() {
+		boolean changed = false;
+		for(int i = 0; i < size; i++) {
+			if(!isDirectJump(ops[i])) continue;
+			int target = args[i];
+			// a cycle of jumps is left alone
+			for(int hops = 0; hops <= size; hops++) {
+				if(target < 0 || target >= size) break;
+				if(ops[target] == JMPI || (ops[i] == JMZI && ops[target] == JMZI)) {
+					if(hops == size) {
+						target = args[i];
+						break;
+					}
+					target = args[target];
+				} else {
+					break;
+				}
+			}
+			if(ops[i] == JMPI && target >= 0 && target < size && ops[target] == HALT) {
+				ops[i] = HALT;
+				args[i] = args[target];
+				changed = true;
+			} else if(target != args[i]) {
+				args[i] = target;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private boolean removeUnreachable() {
+		boolean[] reached = new boolean[size];
+		int[] work = new int[size];
+		int count = 0;
+		if(size > 0) {
+			reached[0] = true;
+			work[count++] = 0;
+		}
+		boolean changed = false;
+		while(count > 0) {
+			int i = work[--count];
+			int op = ops[i];
+			if(isDirectJump(op) && args[i] >= 0 && args[i] < size && !reached[args[i]]) {
+				reached[args[i]] = true;
+				work[count++] = args[i];
+			}
+			if(op != JMPI && op != HALT && i + 1 < size && !reached[i + 1]) {
+				reached[i + 1] = true;
+				work[count++] = i + 1;
+			}
+		}
+		for(int i = 0; i < size; i++) {
+			if(!reached[i]) {
+				removed[i] = true;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	// An instruction that does nothing can be removed even if it is a
+	// target, because its jumps go on to the next instruction
+	private boolean isNoOp(int i) {
+		switch(ops[i]) {
+		case NOP:
+			return true;
+		case ADDI:
+		case SUBI:
+			return args[i] == 0;
+		case JMPI:
+		case JMZI:
+			return args[i] == i + 1;
+		default:
+			return false;
+		}
+	}
+
+	// Rewrites the pair at first and second into one instruction, if it can
+	private boolean combine(int first, int second) {
+		int op = ops[first];
+		int arg = args[first];
+		int nextOp = ops[second];
+		int nextArg = args[second];
+		// the first instruction only sets the accumulator, which LODI replaces,
+		// so a jump to it may go on to the LODI
+		if(nextOp == LODI && (op == LODI || op == ADDI || op == SUBI || op == MULI
+				|| op == ANDI || op == NOT)) {
+			removed[first] = true;
+			return true;
+		}
+		if(targets[second]) return false;
+		if(op == STO && nextOp == LOD && arg == nextArg) {
+			removed[second] = true;
+			return true;
+		}
+		if((op == ADDI || op == SUBI) && (nextOp == ADDI || nextOp == SUBI)) {
+			int sum = (op == ADDI ? arg : -arg) + (nextOp == ADDI ? nextArg : -nextArg);
+			ops[first] = ADDI;
+			args[first] = sum;
+			removed[second] = true;
+			return true;
+		}
+		if(op == LODI) {
+			Integer value = fold(arg, nextOp, nextArg);
+			if(value != null) {
+				args[first] = value;
+				removed[second] = true;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Applies the first rule that matches at start and returns the length
+	// of its pattern, or 0 if none does
+	private int applyRule(int start) {
+		for(RewriteRule rule : rules) {
+			int length = rule.getPatternLength();
+			if(start + length > size) continue;
+			boolean free = true;
+			for(int i = start + 1; i < start + length; i++) {
+				free &= !removed[i] && !targets[i];
+			}
+			if(!free) continue;
+			int[] addresses = rule.match(ops, args, start, size);
+			if(addresses == null) continue;
+			for(int address : addresses) {
+				free &= Integer.toUnsignedLong(address) < memorySize;
+			}
+			if(!free) continue;
+			rule.replace(ops, args, start, addresses);
+			for(int i = start + rule.getReplacementLength(); i < start + length; i++) {
+				removed[i] = true;
+			}
+			return length;
+		}
+		return 0;
+	}
+
+	// The accumulator after an instruction that starts with the value, or null
+	// if the instruction reads memory or may fault
+	private static Integer fold(int value, int op, int arg) {
+		switch(op) {
+		case ADDI:
+			return value + arg;
+		case SUBI:
+			return value - arg;
+		case MULI:
+			return value * arg;
+		case DIVI:
+			return arg == 0 ? null : value / arg;
+		case ANDI:
+			return (arg != 0 && value != 0) ? 1 : 0;
+		case NOT:
+			return value == 0 ? 1 : 0;
+		default:
+			return null;
+		}
+	}
+
+	// Removes the instructions marked in removed. An address moves down by
+	// the number of instructions removed below it, so a jump to a removed
+	// instruction goes on to the next one that is kept and a jump past the end
+	// of the code stays past the end.
+	private void compact() {
+		int[] map = new int[size + 1];
+		int kept = 0;
+		for(int i = 0; i < size; i++) {
+			map[i] = kept;
+			if(!removed[i]) kept++;
+		}
+		map[size] = kept;
+		int next = 0;
+		for(int i = 0; i < size; i++) {
+			if(removed[i]) continue;
+			int arg = args[i];
+			if(isDirectJump(ops[i]) && arg >= 0) {
+				arg = arg <= size ? map[arg] : arg - size + kept;
+			}
+			ops[next] = ops[i];
+			args[next] = arg;
+			next++;
+		}
+		size = kept;
+	}
+
+	private static boolean isDirectJump(int op) {
+		return op == JMPI || op == JMZI;
+	}
+
+	/**
+	 * Reads rules, one on each line, as Superoptimizer prints them. Each rule is
+	 * checked with Superoptimizer.holds, so a rule that was written by hand or by
+	 * an older search is not applied unless it holds.
+	 * @param file the rules
+	 * @return the rules
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if a line is not a rule or the rule does
+	 * not hold, with its line number
+	 */
+	public static List<RewriteRule> readRules(File file) throws IOException {
+		List<RewriteRule> rules = new ArrayList<>();
+		List<String> lines = Files.readAllLines(file.toPath());
+		for(int i = 0; i < lines.size(); i++) {
+			if(lines.get(i).trim().isEmpty()) continue;
+			RewriteRule rule;
+			try {
+				rule = RewriteRule.parse(lines.get(i));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(e.getMessage() + " on line " + (i + 1));
+			}
+			if(!Superoptimizer.holds(rule)) {
+				throw new IllegalArgumentException("the rule does not hold on line " + (i + 1));
+			}
+			rules.add(rule);
+		}
+		return rules;
+	}
+
+	/**
+	 * Optimizes an executable and writes the result as a binary executable
+	 * @param args the input file, the output file and optionally a file of rules
+	 */
+	public static void main(String[] args) {
+		if(args.length != 2 && args.length != 3) {
+			System.out.println("usage: PeepholeOptimizer input output [rules]");
+			return;
+		}
+		try {
+			List<RewriteRule> rules = args.length == 3
+					? readRules(new File(args[2])) : Collections.emptyList();
+			ProgramImage image = Loader.loadImage(new File(args[0]));
+			ProgramImage optimized = optimize(image, rules);
+			BinaryExecutable.write(new File(args[1]), optimized);
+			System.out.println(args[0] + ": " + image.getProgramSize() + " instructions, "
+					+ optimized.getProgramSize() + " after optimizing");
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(args[0] + " " + e.getMessage());
+		}
+	}
+}
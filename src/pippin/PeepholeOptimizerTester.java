@@ -0,0 +1,59 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class PeepholeOptimizerTester {
+
+	private MachineModel run(ProgramImage image) {
+		MachineModel machine = new MachineModel();
+		machine.load(image);
+		assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+		return machine;
+	}
+
+	private void assertSameRun(ProgramImage expected, ProgramImage optimized) {
+		MachineModel before = run(expected);
+		MachineModel after = run(optimized);
+		assertArrayEquals(before.getData(), after.getData());
+		assertEquals(before.getAccumulator(), after.getAccumulator());
+		assertEquals(before.getChangedIndex(), after.getChangedIndex());
+	}
+
+	@Test
+	public void testRewrites() {
+		ProgramImage image = Assembler.assemble("LODI 0\nADDI 5\nSTO 1\nLOD 1\nADDI 2\nSUBI 3\n"
+				+ "STO 2\nJMPI A\nNOP\nHALT\nJMPI C\nNOP\nHALT\nENDCODE\n").getImage();
+		ProgramImage optimized = PeepholeOptimizer.optimize(image);
+		String[] expected = {"LODI 5", "STO 1", "ADDI -1", "STO 2", "HALT 0"};
+		Code code = optimized.newCode();
+		assertEquals(expected.length, code.getProgramSize());
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], code.getText(i));
+		}
+		assertSameRun(image, optimized);
+	}
+
+	@Test
+	// the LOD after the STO is a jump target, so it stays
+	public void testJumpTargets() {
+		ProgramImage image = Assembler.assemble("LODI 3\nSTO 0\nLOD 0\nSUBI 1\nSTO 0\n"
+				+ "JMZI 7\nJMPI 2\nHALT\nENDCODE\n").getImage();
+		ProgramImage optimized = PeepholeOptimizer.optimize(image);
+		assertEquals(image.getProgramSize(), optimized.getProgramSize());
+		assertSameRun(image, optimized);
+	}
+
+	@Test
+	// merge returns through JUMP, so no instruction may move
+	public void testIndirectJumps() {
+		ProgramImage image = Loader.loadImage(new File("test/merge.pexe"));
+		ProgramImage optimized = PeepholeOptimizer.optimize(image);
+		assertEquals(image.getProgramSize(), optimized.getProgramSize());
+		assertSameRun(image, optimized);
+	}
+}
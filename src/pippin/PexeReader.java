@@ -0,0 +1,147 @@
+package pippin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the hex numbers of a text executable a line at a time, straight from the
+ * bytes of a channel. It reads the numbers the way a Scanner on each line read
+ * them with nextInt(16): an optional sign and hex digits, separated by
+ * whitespace, where the rest of a line after the numbers that are read is
+ * ignored. Nothing is allocated per line, only an exception for a bad line.
+ */
+final class PexeReader implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private boolean endOfInput;
+	private boolean started;
+	private int lineNumber;
+
+	PexeReader(ReadableByteChannel channel) {
+		this.channel = channel;
+		buffer.limit(0);
+	}
+
+	/**
+	 * Opens a file
+	 * @param file the executable
+	 * @throws java.io.FileNotFoundException if the file cannot be opened
+	 */
+	PexeReader(File file) throws IOException {
+		this(new FileInputStream(file).getChannel());
+	}
+
+	/**
+	 * Moves to the start of the next line, skipping what is left of this one
+	 * @return false if there are no more lines
+	 * @throws IOException if the channel cannot be read
+	 */
+	boolean nextLine() throws IOException {
+		if(started) {
+			int c = peek();
+			while(c >= 0 && c != '\n' && c != '\r') {
+				buffer.get();
+				c = peek();
+			}
+			if(c == '\r') {
+				buffer.get();
+				c = peek();
+			}
+			if(c == '\n') {
+				buffer.get();
+			}
+		}
+		started = true;
+		if(peek() < 0) return false;
+		lineNumber++;
+		return true;
+	}
+
+	/**
+	 * The number of the line being read
+	 * @return the line number, starting at 1
+	 */
+	int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Reads the next number on this line
+	 * @return the number
+	 * @throws NoSuchElementException if there are no more numbers on the line
+	 * @throws InputMismatchException if the next word is not a hex int
+	 * @throws IOException if the channel cannot be read
+	 */
+	int nextInt() throws IOException {
+		int c = peek();
+		while(isBlank(c)) {
+			buffer.get();
+			c = peek();
+		}
+		if(isEndOfLine(c)) {
+			throw new NoSuchElementException("No number on line " + lineNumber);
+		}
+		boolean negative = c == '-';
+		if(c == '-' || c == '+') {
+			buffer.get();
+			c = peek();
+		}
+		long value = 0;
+		int digits = 0;
+		for(int digit = digit(c); digit >= 0; digit = digit(c)) {
+			value = 16 * value + digit;
+			if(value > 0x80000000L) {
+				throw new InputMismatchException("Number out of range on line " + lineNumber);
+			}
+			digits++;
+			buffer.get();
+			c = peek();
+		}
+		if(digits == 0 || !(isBlank(c) || isEndOfLine(c))) {
+			throw new InputMismatchException("Not a hex number on line " + lineNumber);
+		}
+		if(negative) value = -value;
+		if(value > Integer.MAX_VALUE) {
+			throw new InputMismatchException("Number out of range on line " + lineNumber);
+		}
+		return (int)value;
+	}
+
+	private int peek() throws IOException {
+		while(!buffer.hasRemaining()) {
+			if(endOfInput) return -1;
+			buffer.clear();
+			if(channel.read(buffer) < 0) endOfInput = true;
+			buffer.flip();
+		}
+		return buffer.get(buffer.position()) & 0xFF;
+	}
+
+	private static boolean isEndOfLine(int c) {
+		return c < 0 || c == '\n' || c == '\r';
+	}
+
+	// the whitespace other than line ends that Character.isWhitespace accepts
+	private static boolean isBlank(int c) {
+		return c == ' ' || c == '\t' || c == 0x0B || c == '\f' || (c >= 0x1C && c <= 0x1F);
+	}
+
+	private static int digit(int c) {
+		if(c >= '0' && c <= '9') return c - '0';
+		if(c >= 'a' && c <= 'f') return c - 'a' + 10;
+		if(c >= 'A' && c <= 'F') return c - 'A' + 10;
+		return -1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
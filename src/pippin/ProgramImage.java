@@ -0,0 +1,119 @@
+package pippin;
+
+/**
+ * An immutable loaded program: the code, the same code decoded for the
+ * FastInterpreter and the initial data memory. An image is made once by Loader
+ * or Assembler and can then be shared by any number of machines on any number of
+ * threads. Starting a run from an image copies only the data memory: the models
+ * share its code until one of them changes it and its engines share its
+ * DecodedProgram.
+ */
+public final class ProgramImage {
+	private final long[] words;
+	private final int size;
+	private final int[] data;
+	private final int changedIndex;
+	private final DecodedProgram decoded;
+
+	ProgramImage(long[] words, int size, int[] data, int changedIndex) {
+		this.words = words;
+		this.size = size;
+		this.data = data;
+		this.changedIndex = changedIndex;
+		decoded = DecodedProgram.decode(newCode());
+	}
+
+	/**
+	 * Makes an image of the program and data loaded in a model
+	 * @param model the model to copy
+	 * @return the image, which does not change when the model does
+	 */
+	public static ProgramImage of(MachineModel model) {
+		if(model == null) throw new IllegalArgumentException("Coding error: the model is null");
+		Code code = model.getCode();
+		return new ProgramImage(code.getWords(),
+				code.getProgramSize(), model.getData(), model.getChangedIndex());
+	}
+
+	public int getProgramSize() {
+		return size;
+	}
+
+	public int getOp(int i) {
+		if(i < 0 || i >= size) {
+			throw new CodeAccessException("Attempt to access code outside its bounds");
+		}
+		return (int)(words[i] >> 32);
+	}
+
+	public int getArg(int i) {
+		return (int)words[i];
+	}
+
+	/**
+	 * The initial value of a memory cell
+	 * @param index the address
+	 * @return the value loaded at the address
+	 */
+	public int getData(int index) {
+		return data[index];
+	}
+
+	/**
+	 * The size of the memory the image loads
+	 * @return the number of cells of data
+	 */
+	int getDataSize() {
+		return data.length;
+	}
+
+	public int getChangedIndex() {
+		return changedIndex;
+	}
+
+	/**
+	 * The program decoded once for every engine that runs the image
+	 * @return the shared decoded program
+	 */
+	public DecodedProgram getDecodedProgram() {
+		return decoded;
+	}
+
+	/**
+	 * Makes an image of another program on the same initial data
+	 * @param code the program
+	 * @return the new image
+	 */
+	ProgramImage withCode(Code code) {
+		return new ProgramImage(code.getWords(), code.getProgramSize(), data, changedIndex);
+	}
+
+	// The models share the words until one of them calls setCode or clear
+	Code newCode() {
+		return new Code(words, size);
+	}
+
+	/**
+	 * Makes the state to run the image on, which is a copy of the initial data
+	 * with the registers cleared
+	 * @return the new state
+	 */
+	public MachineState newState() {
+		MachineState state = new MachineState(new Memory(data.length));
+		state.getMemory().load(data, changedIndex);
+		return state;
+	}
+
+	/**
+	 * Puts the initial data into a state and clears its registers
+	 * @param state the state to reuse
+	 */
+	public void reset(MachineState state) {
+		state.reset();
+		state.getMemory().load(data, changedIndex);
+	}
+
+	void copyData(Memory memory) {
+		memory.load(data, changedIndex);
+	}
+}
@@ -0,0 +1,164 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class ProgramImageTester {
+
+	private MachineModel stepThrough(String fileName) {
+		MachineModel machine = new MachineModel(true);
+		assertEquals("success", Loader.load(machine, new File(fileName)));
+		machine.setRunning(true);
+		while(machine.isRunning()) {
+			machine.step();
+		}
+		return machine;
+	}
+
+	@Test
+	// machines started from one image do not see each other's runs
+	public void testSharedImage() {
+		MachineModel expected = stepThrough("test/qsort.pexe");
+		ProgramImage image = Loader.loadImage(new File("test/qsort.pexe"));
+		for(int i = 0; i < 3; i++) {
+			MachineModel machine = new MachineModel();
+			machine.load(image);
+			assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+			assertArrayEquals(expected.getData(), machine.getData());
+			assertEquals(expected.getAccumulator(), machine.getAccumulator());
+		}
+	}
+
+	@Test
+	// changing the code of a machine copies it instead of changing the image
+	public void testCopyOnWrite() {
+		ProgramImage image = Loader.loadImage(new File("test/factorial8.pexe"));
+		int size = image.getProgramSize();
+		int op = image.getOp(0);
+		MachineModel machine = new MachineModel();
+		machine.load(image);
+		machine.setCode(0x1F, 0);
+		machine.getCode().clear();
+		assertEquals(size, image.getProgramSize());
+		assertEquals(op, image.getOp(0));
+		machine.load(image);
+		assertEquals(size, machine.getCode().getProgramSize());
+	}
+
+	@Test
+	public void testAssembleImage() {
+		StringBuilder error = new StringBuilder();
+		ProgramImage image = Assembler.assembleImage(new File("pasm/factorialindirect7.pasm"), error);
+		assertEquals("", error.toString());
+		ProgramImage loaded = Loader.loadImage(new File("test/factorialindirect7.pexe"));
+		assertEquals(loaded.getProgramSize(), image.getProgramSize());
+		for(int i = 0; i < image.getProgramSize(); i++) {
+			assertEquals(loaded.getOp(i), image.getOp(i));
+			assertEquals(loaded.getArg(i), image.getArg(i));
+		}
+		for(int i = 0; i < Memory.DATA_SIZE; i++) {
+			assertEquals(loaded.getData(i), image.getData(i));
+		}
+	}
+
+	private MachineModel largeProgram(int size) {
+		MachineModel machine = new MachineModel(true);
+		for(int i = 0; i < size; i++) {
+			machine.setCode(0xA, 1); // ADDI 1
+		}
+		machine.setCode(0x4, 0); // STO 0
+		machine.setCode(0x1F, 0); // HALT
+		machine.setRunning(true);
+		return machine;
+	}
+
+	@Test
+	// the code grows past CODE_MAX and every engine runs all of it
+	public void testLargeProgram() {
+		int size = 3 * Code.CODE_MAX;
+		MachineModel machine = largeProgram(size);
+		assertEquals(size + 2, machine.getCode().getProgramSize());
+		while(machine.isRunning()) {
+			machine.step();
+		}
+		assertEquals(size, machine.getData(0));
+		machine = largeProgram(size);
+		new FastInterpreter(machine).execute();
+		assertEquals(size, machine.getData(0));
+		machine = largeProgram(size);
+		JitCompiler.compile(machine).execute();
+		assertEquals(size, machine.getData(0));
+		ProgramImage image = ProgramImage.of(machine);
+		machine = new MachineModel();
+		machine.load(image);
+		assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+		assertEquals(size, machine.getData(0));
+	}
+
+	@Test
+	// clearing the code shared with an image longer than CODE_MAX
+	public void testClearLargeSharedCode() {
+		int size = 3 * Code.CODE_MAX;
+		ProgramImage image = ProgramImage.of(largeProgram(size));
+		MachineModel machine = new MachineModel();
+		machine.load(image);
+		machine.getCode().clear();
+		assertEquals(0, machine.getCode().getProgramSize());
+		assertEquals(size + 2, image.getProgramSize());
+		machine.load(image);
+		assertEquals(size + 2, machine.getCode().getProgramSize());
+		assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+		assertEquals(size, machine.getData(0));
+	}
+
+	@Test
+	// MachineView reloads a file by clearing the model and loading the image it
+	// kept, so a program past CODE_MAX must survive any number of reloads
+	public void testReloadLargeProgram() throws IOException {
+		int size = 2 * Code.CODE_MAX;
+		File file = File.createTempFile("pippin", ".pexe");
+		try(PrintWriter out = new PrintWriter(file)) {
+			for(int i = 0; i < size; i++) {
+				out.println("b 0"); // ADD 0
+			}
+			out.println("4 1"); // STO 1
+			out.println("1f 0"); // HALT
+			out.println("-1");
+			out.println("0 3");
+		}
+		try {
+			ProgramImage image = Loader.loadImage(file);
+			MachineModel machine = new MachineModel(true);
+			machine.load(image);
+			machine.setRunning(true);
+			for(int i = 0; i < 10; i++) {
+				machine.step();
+			}
+			for(int reload = 0; reload < 3; reload++) {
+				machine.clear();
+				assertEquals(0, machine.getCode().getProgramSize());
+				machine.load(image);
+				assertEquals(size + 2, machine.getCode().getProgramSize());
+				assertEquals(0, machine.getProgramCounter());
+				assertEquals(HaltReason.HALT, machine.run(Long.MAX_VALUE).getReason());
+				assertEquals(3 * size, machine.getData(1));
+			}
+			assertEquals(size + 2, image.getProgramSize());
+			assertEquals(0, image.getData(1));
+		} finally {
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	@Test(expected=CodeAccessException.class)
+	public void testPastEndOfCode() {
+		largeProgram(Code.CODE_MAX).getCode().getOp(Code.CODE_MAX + 2);
+	}
+}
@@ -0,0 +1,276 @@
+package pippin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rule that replaces a sequence of instructions by a shorter one that leaves
+ * the same accumulator, memory and changed index, such as
+ * <pre>
+ * ADDI 1; STO a; LOD a; SUBI 1 =&gt; ADDI 1; STO a; SUBI 1
+ * </pre>
+ * The args of the instructions that use memory are variables a, b, c... which
+ * stand for different addresses, and the other args are hex numbers as in a
+ * source. The rules are made by Superoptimizer and applied by
+ * PeepholeOptimizer. Only instructions that cannot fault at an address in
+ * memory are allowed: LODI, LOD, STO, ADDI, ADD, SUBI, SUB, MULI, MUL, ANDI,
+ * AND, NOT, CMPL and CMPZ. A rule may leave out a memory access, so it only
+ * holds where its addresses are in memory.
+ */
+public final class RewriteRule {
+	private static final int NOT = 0x18;
+
+	private final int[] patternOps;
+	private final int[] patternArgs;
+	private final int[] replacementOps;
+	private final int[] replacementArgs;
+	private final int variables;
+
+	/**
+	 * Creates a rule from the instructions of its two sides, in which the arg
+	 * of an instruction that uses memory is the number of its variable
+	 * @param patternOps the opcodes of the sequence to replace
+	 * @param patternArgs the args of the sequence to replace
+	 * @param replacementOps the opcodes of the shorter sequence
+	 * @param replacementArgs the args of the shorter sequence
+	 * @throws IllegalArgumentException if an opcode is not allowed, the
+	 * replacement is not shorter or it uses a variable the pattern does not
+	 */
+	public RewriteRule(int[] patternOps, int[] patternArgs, int[] replacementOps, int[] replacementArgs) {
+		if(patternOps.length != patternArgs.length || replacementOps.length != replacementArgs.length) {
+			throw new IllegalArgumentException("Coding error: the ops and args differ in length");
+		}
+		if(replacementOps.length >= patternOps.length) {
+			throw new IllegalArgumentException("the replacement is not shorter than the pattern");
+		}
+		this.patternOps = patternOps.clone();
+		this.patternArgs = patternArgs.clone();
+		this.replacementOps = replacementOps.clone();
+		this.replacementArgs = replacementArgs.clone();
+		int count = 0;
+		for(int i = 0; i < patternOps.length; i++) {
+			check(patternOps[i], patternArgs[i]);
+			if(usesMemory(patternOps[i])) count = Math.max(count, patternArgs[i] + 1);
+		}
+		variables = count;
+		boolean[] used = new boolean[count];
+		for(int i = 0; i < patternOps.length; i++) {
+			if(usesMemory(patternOps[i])) used[patternArgs[i]] = true;
+		}
+		for(int i = 0; i < replacementOps.length; i++) {
+			check(replacementOps[i], replacementArgs[i]);
+			if(usesMemory(replacementOps[i]) && (replacementArgs[i] >= count || !used[replacementArgs[i]])) {
+				throw new IllegalArgumentException("the replacement uses a variable the pattern does not");
+			}
+		}
+	}
+
+	private static void check(int op, int arg) {
+		if(!isAllowed(op)) {
+			throw new IllegalArgumentException("the instruction " + InstructionMap.mnemonics.get(op)
+					+ " is not allowed in a rule");
+		}
+		if(usesMemory(op) && (arg < 0 || arg >= 26)) {
+			throw new IllegalArgumentException("Coding error: the variable must be 0 to 25");
+		}
+	}
+
+	/**
+	 * Whether an instruction may be in a rule
+	 * @param op the opcode
+	 * @return true if the instruction cannot fault at an address in memory
+	 */
+	public static boolean isAllowed(int op) {
+		switch(op) {
+		case 0x1: // LODI
+		case 0xA: // ADDI
+		case 0xD: // SUBI
+		case 0x10: // MULI
+		case 0x16: // ANDI
+		case NOT:
+			return true;
+		default:
+			return usesMemory(op);
+		}
+	}
+
+	/**
+	 * Whether the arg of an instruction is an address
+	 * @param op the opcode
+	 * @return true for LOD, STO, ADD, SUB, MUL, AND, CMPL and CMPZ
+	 */
+	public static boolean usesMemory(int op) {
+		switch(op) {
+		case 0x2: // LOD
+		case 0x4: // STO
+		case 0xB: // ADD
+		case 0xE: // SUB
+		case 0x11: // MUL
+		case 0x17: // AND
+		case 0x19: // CMPL
+		case 0x1A: // CMPZ
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// The sides of the rule, with the variable in place of each address, for
+	// Superoptimizer to check. The arrays are not copied.
+
+	int[] getPatternOps() {
+		return patternOps;
+	}
+
+	int[] getPatternArgs() {
+		return patternArgs;
+	}
+
+	int[] getReplacementOps() {
+		return replacementOps;
+	}
+
+	int[] getReplacementArgs() {
+		return replacementArgs;
+	}
+
+	public int getPatternLength() {
+		return patternOps.length;
+	}
+
+	public int getReplacementLength() {
+		return replacementOps.length;
+	}
+
+	/**
+	 * Matches the pattern at an address of a program
+	 * @param ops the opcodes of the program
+	 * @param args the args of the program
+	 * @param at the address of the first instruction to match
+	 * @param size the number of instructions in the program
+	 * @return the address of each variable, or null if the pattern does not
+	 * match
+	 */
+	int[] match(int[] ops, int[] args, int at, int size) {
+		if(at + patternOps.length > size) return null;
+		int[] addresses = new int[variables];
+		// any int may be an address, so the variables that are bound are marked
+		boolean[] bound = new boolean[variables];
+		for(int i = 0; i < patternOps.length; i++) {
+			int op = ops[at + i];
+			int arg = args[at + i];
+			if(op != patternOps[i]) return null;
+			if(usesMemory(op)) {
+				int variable = patternArgs[i];
+				if(!bound[variable]) {
+					// different variables are different addresses
+					for(int j = 0; j < variables; j++) {
+						if(bound[j] && addresses[j] == arg) return null;
+					}
+					addresses[variable] = arg;
+					bound[variable] = true;
+				} else if(addresses[variable] != arg) {
+					return null;
+				}
+			} else if(op != NOT && arg != patternArgs[i]) {
+				return null;
+			}
+		}
+		return addresses;
+	}
+
+	/**
+	 * Writes the replacement at an address of a program
+	 * @param ops the opcodes of the program
+	 * @param args the args of the program
+	 * @param at the address of the first instruction to write
+	 * @param addresses the addresses returned by match
+	 */
+	void replace(int[] ops, int[] args, int at, int[] addresses) {
+		for(int i = 0; i < replacementOps.length; i++) {
+			ops[at + i] = replacementOps[i];
+			args[at + i] = usesMemory(replacementOps[i]) ? addresses[replacementArgs[i]] : replacementArgs[i];
+		}
+	}
+
+	/**
+	 * Reads a rule in the form that toString writes
+	 * @param text the rule
+	 * @return the rule
+	 * @throws IllegalArgumentException if the text is not a rule
+	 */
+	public static RewriteRule parse(String text) {
+		String[] sides = text.split("=>", -1);
+		if(sides.length != 2) throw new IllegalArgumentException("a rule must have one =>");
+		List<int[]> pattern = parseSide(sides[0]);
+		List<int[]> replacement = parseSide(sides[1]);
+		return new RewriteRule(pattern.get(0), pattern.get(1), replacement.get(0), replacement.get(1));
+	}
+
+	private static List<int[]> parseSide(String side) {
+		side = side.trim();
+		String[] instructions = side.isEmpty() ? new String[0] : side.split(";");
+		int[] ops = new int[instructions.length];
+		int[] args = new int[instructions.length];
+		for(int i = 0; i < instructions.length; i++) {
+			String[] parts = instructions[i].trim().split("\\s+");
+			Integer op = InstructionMap.opcode.get(parts[0]);
+			if(op == null) throw new IllegalArgumentException("unknown mnemonic " + parts[0]);
+			ops[i] = op;
+			if(op == NOT) {
+				if(parts.length != 1) throw new IllegalArgumentException("NOT cannot take arguments");
+				continue;
+			}
+			if(parts.length != 2) throw new IllegalArgumentException(parts[0] + " must have one argument");
+			if(usesMemory(op)) {
+				if(parts[1].length() != 1 || parts[1].charAt(0) < 'a' || parts[1].charAt(0) > 'z') {
+					throw new IllegalArgumentException("the address of " + parts[0] + " must be a variable");
+				}
+				args[i] = parts[1].charAt(0) - 'a';
+			} else {
+				try {
+					args[i] = Integer.parseInt(parts[1], 16);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("the argument of " + parts[0] + " is not a hex number");
+				}
+			}
+		}
+		List<int[]> result = new ArrayList<>();
+		result.add(ops);
+		result.add(args);
+		return result;
+	}
+
+	private static void append(StringBuilder builder, int[] ops, int[] args) {
+		for(int i = 0; i < ops.length; i++) {
+			if(i > 0) builder.append("; ");
+			builder.append(InstructionMap.mnemonics.get(ops[i]));
+			if(usesMemory(ops[i])) {
+				builder.append(' ').append((char)('a' + args[i]));
+			} else if(ops[i] != NOT) {
+				builder.append(' ');
+				if(args[i] < 0) builder.append('-');
+				builder.append(Integer.toHexString(Math.abs(args[i])).toUpperCase());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		append(builder, patternOps, patternArgs);
+		builder.append(" => ");
+		append(builder, replacementOps, replacementArgs);
+		return builder.toString().trim();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof RewriteRule && toString().equals(other.toString());
+	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+}
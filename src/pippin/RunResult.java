@@ -0,0 +1,61 @@
+package pippin;
+
+/**
+ * The outcome of a bounded run of a program, as returned by MachineModel.run and
+ * ExecutionEngine.run
+ */
+public class RunResult {
+	private HaltReason reason;
+	private long steps;
+	private long elapsedNanos;
+	private Fault fault;
+	private int faultProgramCounter;
+
+	public RunResult(HaltReason reason, long steps, long elapsedNanos, 
+			Fault fault, int faultProgramCounter) {
+		this.reason = reason;
+		this.steps = steps;
+		this.elapsedNanos = elapsedNanos;
+		this.fault = fault;
+		this.faultProgramCounter = faultProgramCounter;
+	}
+
+	public HaltReason getReason() {
+		return reason;
+	}
+
+	/**
+	 * The number of instructions retired by the run
+	 * @return the count of instructions executed without an error
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * The run time error that stopped the program
+	 * @return the fault if the reason is FAULT, otherwise Fault.NONE
+	 */
+	public Fault getFault() {
+		return fault;
+	}
+
+	/**
+	 * The line that made the fault
+	 * @return the program counter of the failing instruction, or -1 if there was
+	 * no fault
+	 */
+	public int getFaultProgramCounter() {
+		return faultProgramCounter;
+	}
+
+	@Override
+	public String toString() {
+		return reason + " after " + steps + " steps in " + elapsedNanos/1000 + " microseconds"
+				+ (fault == Fault.NONE ? "" : ": " + fault + " on line " + faultProgramCounter);
+	}
+}
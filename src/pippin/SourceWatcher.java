@@ -0,0 +1,141 @@
+package pippin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches source and executable directories with a WatchService. When a pasm
+ * file in a source directory is saved, that file alone is assembled to the pexe
+ * file of the same name in its executable directory, and when an executable is
+ * written, by this watcher or anything else, the listener is told so it can
+ * reload it. An editor often writes a file several times for one save, so a file
+ * is only handled once it has not changed for the debounce delay. The work is
+ * done on a thread of the watcher and the listeners are called on it, never on
+ * the Swing thread.
+ */
+public class SourceWatcher implements Closeable {
+	/** the debounce delay used by MachineView */
+	public static final long DEFAULT_DELAY_MILLIS = 300;
+
+	private WatchService service;
+	private long delayMillis;
+	private Consumer<AssemblyReport> assembled;
+	private Consumer<File> executableChanged;
+	// the executable directory of each source directory
+	private Map<Path, Path> outputs = new HashMap<>();
+	private Set<Path> executables = new HashSet<>();
+	private Map<Path, ScheduledFuture<?>> pending = new HashMap<>();
+	private ScheduledExecutorService worker;
+	private Thread watcher;
+
+	/**
+	 * Creates a watcher that watches nothing until watch is called
+	 * @param delayMillis the time a file must be unchanged before it is handled
+	 * @param assembled called with the report of each source that is assembled
+	 * @param executableChanged called with each executable that is written
+	 * @throws IOException if the watch service cannot be created
+	 */
+	public SourceWatcher(long delayMillis, Consumer<AssemblyReport> assembled,
+			Consumer<File> executableChanged) throws IOException {
+		if(assembled == null || executableChanged == null) {
+			throw new IllegalArgumentException("Coding error: a listener is null");
+		}
+		this.delayMillis = delayMillis;
+		this.assembled = assembled;
+		this.executableChanged = executableChanged;
+		service = FileSystems.getDefault().newWatchService();
+		worker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "pippin-assembler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		watcher = new Thread(this::watch, "pippin-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Starts watching a source directory and the directory its executables are
+	 * written to, which may be the same directory
+	 * @param sourceDirectory the directory of the pasm files
+	 * @param executableDirectory the directory of the pexe files
+	 * @throws IOException if a directory cannot be watched
+	 */
+	public synchronized void watch(File sourceDirectory, File executableDirectory) throws IOException {
+		Path sources = sourceDirectory.getAbsoluteFile().toPath();
+		Path executable = executableDirectory.getAbsoluteFile().toPath();
+		outputs.put(sources, executable);
+		executables.add(executable);
+		register(sources);
+		register(executable);
+	}
+
+	private void register(Path directory) throws IOException {
+		directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey key = service.take();
+				Path directory = (Path)key.watchable();
+				for(WatchEvent<?> event : key.pollEvents()) {
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+					changed(directory.resolve((Path)event.context()));
+				}
+				key.reset();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	// Schedules the file to be handled, replacing an earlier schedule for it
+	private synchronized void changed(Path file) {
+		String name = file.getFileName().toString();
+		Path directory = file.getParent();
+		Runnable task;
+		if(name.endsWith(".pasm") && outputs.containsKey(directory)) {
+			File output = outputs.get(directory)
+					.resolve(name.substring(0, name.length() - "pasm".length()) + "pexe").toFile();
+			task = () -> assembled.accept(BatchAssembler.assembleOne(file.toFile(), output));
+		} else if((name.endsWith(".pexe") || name.endsWith("." + BinaryExecutable.EXTENSION))
+				&& executables.contains(directory)) {
+			task = () -> executableChanged.accept(file.toFile());
+		} else {
+			return;
+		}
+		ScheduledFuture<?> earlier = pending.get(file);
+		if(earlier != null) earlier.cancel(false);
+		pending.put(file, worker.schedule(() -> {
+			synchronized(this) {
+				pending.remove(file);
+			}
+			task.run();
+		}, delayMillis, TimeUnit.MILLISECONDS));
+	}
+
+	@Override
+	public void close() throws IOException {
+		service.close();
+		worker.shutdownNow();
+	}
+}
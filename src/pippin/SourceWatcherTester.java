@@ -0,0 +1,91 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SourceWatcherTester {
+
+	private void delete(File directory) {
+		for(File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	// several saves in quick succession are assembled fewer times than they
+	// are written, and the executable that is written is reported. How many
+	// saves fall inside one debounce delay depends on the scheduler, so the
+	// count is not exact.
+	public void testWatch() throws IOException, InterruptedException {
+		File directory = Files.createTempDirectory("pippin").toFile();
+		File source = new File(directory, "qsort.pasm");
+		List<AssemblyReport> reports = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch assembled = new CountDownLatch(1);
+		CountDownLatch written = new CountDownLatch(1);
+		int writes = 5;
+		try (SourceWatcher watcher = new SourceWatcher(500,
+				report -> {reports.add(report); assembled.countDown();},
+				file -> {if(file.getName().equals("qsort.pexe")) written.countDown();})) {
+			watcher.watch(directory, directory);
+			byte[] text = Files.readAllBytes(new File("pasm/qsort.pasm").toPath());
+			for(int i = 0; i < writes; i++) {
+				Files.write(source.toPath(), text);
+			}
+			assertTrue(assembled.await(30, TimeUnit.SECONDS));
+			assertTrue(written.await(30, TimeUnit.SECONDS));
+			Thread.sleep(1000);
+			synchronized(reports) {
+				assertTrue(reports.size() + " reports", reports.size() >= 1 && reports.size() < writes);
+				for(AssemblyReport report : reports) {
+					assertEquals(true, report.isSuccess());
+				}
+			}
+			assertArrayEquals(Files.readAllBytes(new File("test/qsort.pexe").toPath()),
+					Files.readAllBytes(new File(directory, "qsort.pexe").toPath()));
+		} finally {
+			delete(directory);
+		}
+	}
+
+	@Test
+	// the executable is written to the executable directory, and a file that
+	// is not a source there is not assembled
+	public void testSeparateDirectories() throws IOException, InterruptedException {
+		File sources = Files.createTempDirectory("pippin").toFile();
+		File executables = Files.createTempDirectory("pippin").toFile();
+		List<AssemblyReport> reports = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch written = new CountDownLatch(1);
+		try (SourceWatcher watcher = new SourceWatcher(100, reports::add,
+				file -> {if(file.getName().equals("merge.pexe")) written.countDown();})) {
+			watcher.watch(sources, executables);
+			Files.write(new File(sources, "notes.txt").toPath(), "LODI 1\n".getBytes());
+			Files.copy(new File("pasm/merge.pasm").toPath(), new File(sources, "merge.pasm").toPath());
+			assertTrue(written.await(30, TimeUnit.SECONDS));
+			// the copy may be seen as more than one change
+			synchronized(reports) {
+				assertTrue(reports.size() >= 1);
+				for(AssemblyReport report : reports) {
+					assertEquals(new File(executables, "merge.pexe").getAbsoluteFile(),
+							report.getOutput().getAbsoluteFile());
+				}
+			}
+			assertEquals(false, new File(sources, "merge.pexe").exists());
+		} finally {
+			delete(sources);
+			delete(executables);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package pippin;
+
+/**
+ * A backend for the whole 32-bit address space, for programs that use a few
+ * scattered addresses. The address is split into a directory index, a table index
+ * and an offset in a page of PAGE_SIZE cells, and the tables and pages are only
+ * allocated by the first write of a value other than 0. Reading a cell that was
+ * never written returns 0 without allocating anything.
+ */
+public class SparseBackend implements MemoryBackend {
+	public static final int PAGE_SIZE = 4096;
+	private static final int PAGE_SHIFT = 12;
+	private static final int TABLE_SIZE = 1024;
+	private static final int TABLE_SHIFT = 22;
+	private static final int TABLE_MASK = TABLE_SIZE - 1;
+	private static final int OFFSET_MASK = PAGE_SIZE - 1;
+	/** the number of pages in the address space */
+	static final int PAGE_COUNT = TABLE_SIZE * TABLE_SIZE;
+	private int[][][] directory = new int[TABLE_SIZE][][];
+	private int residentPages;
+
+	@Override
+	public long size() {
+		return 1L << 32;
+	}
+
+	@Override
+	public int get(int index) {
+		int[][] table = directory[index >>> TABLE_SHIFT];
+		if(table == null) return 0;
+		int[] page = table[(index >>> PAGE_SHIFT) & TABLE_MASK];
+		if(page == null) return 0;
+		return page[index & OFFSET_MASK];
+	}
+
+	@Override
+	public void set(int index, int value) {
+		int[][] table = directory[index >>> TABLE_SHIFT];
+		if(table == null) {
+			if(value == 0) return;
+			table = new int[TABLE_SIZE][];
+			directory[index >>> TABLE_SHIFT] = table;
+		}
+		int[] page = table[(index >>> PAGE_SHIFT) & TABLE_MASK];
+		if(page == null) {
+			if(value == 0) return;
+			page = new int[PAGE_SIZE];
+			table[(index >>> PAGE_SHIFT) & TABLE_MASK] = page;
+			residentPages++;
+		}
+		page[index & OFFSET_MASK] = value;
+	}
+
+	@Override
+	public void clear() {
+		directory = new int[TABLE_SIZE][][];
+		residentPages = 0;
+	}
+
+	/**
+	 * Makes a copy of the resident pages
+	 */
+	@Override
+	public MemoryBackend fork() {
+		SparseBackend copy = new SparseBackend();
+		for(int i = 0; i < TABLE_SIZE; i++) {
+			if(directory[i] != null) {
+				copy.directory[i] = new int[TABLE_SIZE][];
+				for(int j = 0; j < TABLE_SIZE; j++) {
+					if(directory[i][j] != null) {
+						copy.directory[i][j] = directory[i][j].clone();
+					}
+				}
+			}
+		}
+		copy.residentPages = residentPages;
+		return copy;
+	}
+
+	/**
+	 * A page of the address space, so the cells that were never written can be
+	 * skipped without reading them
+	 * @param number the address of the first cell divided by PAGE_SIZE
+	 * @return the cells of the page, or null if it was never allocated
+	 */
+	int[] getPage(int number) {
+		int[][] table = directory[number >>> (TABLE_SHIFT - PAGE_SHIFT)];
+		return table == null ? null : table[number & TABLE_MASK];
+	}
+
+	/**
+	 * The number of pages that have been allocated
+	 * @return the count of pages, each of PAGE_SIZE cells
+	 */
+	public int getResidentPageCount() {
+		return residentPages;
+	}
+
+	/**
+	 * Hashes the pages in address order, skipping the pages that hold only 0, so
+	 * two memories with the same values have the same checksum however their
+	 * pages were allocated
+	 */
+	@Override
+	public long checksum() {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < TABLE_SIZE; i++) {
+			if(directory[i] == null) continue;
+			for(int j = 0; j < TABLE_SIZE; j++) {
+				int[] page = directory[i][j];
+				if(page == null || isZero(page)) continue;
+				hash = (hash ^ (i * TABLE_SIZE + j)) * 0x100000001b3L;
+				for(int value : page) {
+					hash = (hash ^ value) * 0x100000001b3L;
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static boolean isZero(int[] page) {
+		for(int value : page) {
+			if(value != 0) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,434 @@
+package pippin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+/**
+ * Searches for the shortest sequence of instructions that leaves the same
+ * accumulator, memory and changed index as a straight-line fragment, and
+ * writes each one it finds as a RewriteRule for PeepholeOptimizer. The
+ * candidates are every sequence of up to one instruction less than the
+ * fragment, shortest first, over the instructions RewriteRule allows, the
+ * addresses of the fragment and immediates made from those of the fragment.
+ * They are run on the ForkJoinPool against the fragment through
+ * InstructionSet, first on random states, which reject almost all of them,
+ * and then on every state whose accumulator and cells are in a domain of
+ * values. A rule is only as sound as these tests, so the values are those
+ * where the instructions of the fragment change behaviour: the extremes where
+ * overflow shows, each immediate of the fragment and each constant folded from
+ * them with its negation and neighbours, where an ADDI, SUBI or ANDI followed
+ * by NOT or a compare changes its result, and the same values 2^31 away, where
+ * a product by an even number wraps to 0. A candidate that passes is run once
+ * more on VERIFY_TESTS random states before its rule is made.
+ */
+public class Superoptimizer {
+	/** the longest fragment searched by default */
+	public static final int DEFAULT_MAX_LENGTH = 3;
+	/** the most candidates of one length that are searched */
+	public static final long MAX_CANDIDATES = 50_000_000L;
+
+	private static final int RANDOM_TESTS = 64;
+	private static final int VERIFY_TESTS = 100_000;
+	private static final int NOT = 0x18;
+	private static final int[] MEMORY_OPS = {0x2, 0x4, 0xB, 0xE, 0x11, 0x17, 0x19, 0x1A};
+	private static final int[] IMMEDIATE_OPS = {0x1, 0xA, 0xD, 0x10, 0x16};
+	// the values tried first, before those made from the fragment
+	private static final int[] DOMAIN = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 2, -2};
+	private static final int MAX_STATES = 1_000_000;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Creates a superoptimizer with a worker for each processor
+	 */
+	public Superoptimizer() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a superoptimizer
+	 * @param parallelism the number of worker threads
+	 */
+	public Superoptimizer(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Searches for a shorter sequence equivalent to a fragment
+	 * @param ops the opcodes of the fragment, which must be allowed in a rule
+	 * @param args the args of the fragment
+	 * @return the rule from the fragment to the shortest sequence found, or
+	 * null if there is none
+	 */
+	public RewriteRule search(int[] ops, int[] args) {
+		Fragment fragment = new Fragment(ops, args);
+		for(int length = 0; length < ops.length; length++) {
+			long count = fragment.candidates(length);
+			if(count < 0) break;
+			int size = length;
+			long found;
+			try {
+				found = pool.submit(() -> LongStream.range(0, count).parallel()
+						.filter(candidate -> fragment.isEquivalent(candidate, size)
+								&& fragment.isVerified(candidate, size))
+						.findFirst().orElse(-1)).get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+			if(found >= 0) {
+				int[] candidateOps = new int[length];
+				int[] candidateArgs = new int[length];
+				fragment.decode(found, length, candidateOps, candidateArgs);
+				return new RewriteRule(fragment.ops, fragment.variables, candidateOps, candidateArgs);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Searches every straight-line fragment of the reachable blocks of a program
+	 * @param code the program
+	 * @param maxLength the longest fragment to search
+	 * @return the rules found, one for each fragment that has a shorter
+	 * equivalent, with the fragments that differ only in their addresses
+	 * searched once
+	 */
+	public List<RewriteRule> search(Code code, int maxLength) {
+		ControlFlowGraph graph = ControlFlowGraph.of(code);
+		Map<String, int[][]> fragments = new LinkedHashMap<>();
+		for(ControlFlowGraph.Block block : graph.getBlocks()) {
+			if(!graph.isReachable(block)) continue;
+			for(int start = block.getStart(); start < block.getEnd(); start++) {
+				for(int length = 2; length <= maxLength && start + length <= block.getEnd(); length++) {
+					int[] ops = new int[length];
+					int[] args = new int[length];
+					boolean allowed = true;
+					for(int i = 0; i < length; i++) {
+						ops[i] = code.getOp(start + i);
+						args[i] = code.getArg(start + i);
+						allowed &= RewriteRule.isAllowed(ops[i])
+								&& (!RewriteRule.usesMemory(ops[i]) || (args[i] >= 0 && args[i] < Memory.DATA_SIZE));
+					}
+					if(!allowed) break;
+					Fragment fragment = new Fragment(ops, args);
+					fragments.putIfAbsent(fragment.toString(), new int[][] {ops, args});
+				}
+			}
+		}
+		Set<RewriteRule> rules = new LinkedHashSet<>();
+		for(int[][] fragment : fragments.values()) {
+			RewriteRule rule = search(fragment[0], fragment[1]);
+			if(rule != null) rules.add(rule);
+		}
+		return new ArrayList<>(rules);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Checks a rule, such as one read from a file, on the same states as the
+	 * rules the search makes
+	 * @param rule the rule to check
+	 * @return false if the replacement left a different state than the pattern
+	 * on one of the states
+	 */
+	public static boolean holds(RewriteRule rule) {
+		int[] patternOps = rule.getPatternOps();
+		int[] patternArgs = rule.getPatternArgs();
+		Fragment fragment = new Fragment(patternOps, patternArgs);
+		int[] ops = rule.getReplacementOps();
+		int[] args = rule.getReplacementArgs().clone();
+		for(int i = 0; i < ops.length; i++) {
+			if(!RewriteRule.usesMemory(ops[i])) continue;
+			// the cell the fragment gave the variable where it first appears
+			for(int j = 0; j < patternOps.length; j++) {
+				if(RewriteRule.usesMemory(patternOps[j]) && patternArgs[j] == args[i]) {
+					args[i] = fragment.variables[j];
+					break;
+				}
+			}
+		}
+		return fragment.holds(ops, args);
+	}
+
+	/**
+	 * A fragment with its addresses replaced by variables 0, 1, 2... in the
+	 * order they first appear, the candidates to replace it and the tests
+	 */
+	private static class Fragment {
+		private int[] ops;
+		private int[] variables;
+		private int cells;
+		private int[] alphabetOps;
+		private int[] alphabetArgs;
+		// the values of the tests, those to try first at the front
+		private int[] values;
+		// the values of the exhaustive test, small enough to try every state
+		private int[] domain;
+		private int[][] inputs = new int[RANDOM_TESTS][];
+		private int[][] outputs = new int[RANDOM_TESTS][];
+		private ThreadLocal<Machine> machines;
+
+		Fragment(int[] ops, int[] args) {
+			if(ops.length != args.length) throw new IllegalArgumentException("Coding error: the ops and args differ in length");
+			this.ops = ops.clone();
+			variables = new int[args.length];
+			List<Integer> addresses = new ArrayList<>();
+			Set<Integer> immediates = new TreeSet<>(Arrays.asList(0, 1, -1));
+			List<Integer> own = new ArrayList<>();
+			for(int i = 0; i < ops.length; i++) {
+				if(!RewriteRule.isAllowed(ops[i])) {
+					throw new IllegalArgumentException("the instruction " + InstructionMap.mnemonics.get(ops[i])
+							+ " is not allowed in a rule");
+				}
+				if(RewriteRule.usesMemory(ops[i])) {
+					if(!addresses.contains(args[i])) addresses.add(args[i]);
+					variables[i] = addresses.indexOf(args[i]);
+				} else if(ops[i] != NOT) {
+					variables[i] = args[i];
+					own.add(args[i]);
+				}
+			}
+			cells = addresses.size();
+			// the constants that folding the immediates of the fragment can make
+			for(int a : own) {
+				immediates.add(a);
+				immediates.add(-a);
+				for(int b : own) {
+					immediates.add(a + b);
+					immediates.add(a - b);
+					immediates.add(a * b);
+				}
+			}
+			int size = MEMORY_OPS.length * cells + IMMEDIATE_OPS.length * immediates.size() + 1;
+			alphabetOps = new int[size];
+			alphabetArgs = new int[size];
+			int next = 0;
+			for(int op : MEMORY_OPS) {
+				for(int cell = 0; cell < cells; cell++) {
+					alphabetOps[next] = op;
+					alphabetArgs[next++] = cell;
+				}
+			}
+			for(int op : IMMEDIATE_OPS) {
+				for(int immediate : immediates) {
+					alphabetOps[next] = op;
+					alphabetArgs[next++] = immediate;
+				}
+			}
+			alphabetOps[next] = NOT;
+
+			Set<Integer> special = new LinkedHashSet<>();
+			for(int value : DOMAIN) {
+				special.add(value);
+			}
+			List<Integer> constants = new ArrayList<>(own);
+			constants.addAll(immediates);
+			for(int x : constants) {
+				for(int value : new int[] {-x, x, -x + 1, -x - 1, x + 1, x - 1,
+						-x + Integer.MIN_VALUE, x + Integer.MIN_VALUE}) {
+					special.add(value);
+				}
+			}
+			values = special.stream().mapToInt(Integer::intValue).toArray();
+			int domainSize = (int)Math.floor(Math.pow(MAX_STATES, 1.0 / (cells + 1)) + 1e-9);
+			domain = Arrays.copyOf(values, Math.min(values.length, domainSize));
+
+			machines = ThreadLocal.withInitial(() -> new Machine(cells));
+			Machine machine = machines.get();
+			SplittableRandom random = new SplittableRandom(ops.length);
+			for(int i = 0; i < RANDOM_TESTS; i++) {
+				inputs[i] = randomState(random);
+				outputs[i] = new int[cells + 2];
+				machine.run(this.ops, variables, ops.length, inputs[i], outputs[i]);
+			}
+		}
+
+		// An accumulator and cells that are mostly the values of the fragment
+		// or small, where comparisons and NOT differ, and some equal to
+		// another cell or the accumulator
+		private int[] randomState(SplittableRandom random) {
+			int[] state = new int[cells + 1];
+			for(int index = 0; index <= cells; index++) {
+				int choice = random.nextInt(10);
+				if(choice < 4 || (choice == 9 && index == 0)) {
+					state[index] = values[random.nextInt(values.length)];
+				} else if(choice < 6) {
+					state[index] = random.nextInt(7) - 3;
+				} else if(choice < 9) {
+					state[index] = random.nextInt();
+				} else {
+					state[index] = state[random.nextInt(index)];
+				}
+			}
+			return state;
+		}
+
+		// The number of candidates of a length, or -1 if there are too many
+		long candidates(int length) {
+			long count = 1;
+			for(int i = 0; i < length; i++) {
+				count *= alphabetOps.length;
+				if(count > MAX_CANDIDATES) return -1;
+			}
+			return count;
+		}
+
+		void decode(long candidate, int length, int[] ops, int[] args) {
+			for(int i = length - 1; i >= 0; i--) {
+				int letter = (int)(candidate % alphabetOps.length);
+				candidate /= alphabetOps.length;
+				ops[i] = alphabetOps[letter];
+				args[i] = alphabetArgs[letter];
+			}
+		}
+
+		boolean isEquivalent(long candidate, int length) {
+			Machine machine = machines.get();
+			decode(candidate, length, machine.candidateOps, machine.candidateArgs);
+			for(int i = 0; i < RANDOM_TESTS; i++) {
+				if(!machine.matches(length, inputs[i], outputs[i])) return false;
+			}
+			return coversDomain(machine, length);
+		}
+
+		// Runs the candidate in the machine on every state in the domain
+		private boolean coversDomain(Machine machine, int length) {
+			int[] digits = new int[cells + 1];
+			int[] input = new int[cells + 1];
+			int[] output = new int[cells + 2];
+			while(true) {
+				for(int j = 0; j <= cells; j++) {
+					input[j] = domain[digits[j]];
+				}
+				machine.run(ops, variables, ops.length, input, output);
+				if(!machine.matches(length, input, output)) return false;
+				int j = 0;
+				while(j <= cells && ++digits[j] == domain.length) {
+					digits[j++] = 0;
+				}
+				if(j > cells) return true;
+			}
+		}
+
+		// The last check of a candidate that passed isEquivalent, on states
+		// that were not used to choose it
+		boolean isVerified(long candidate, int length) {
+			Machine machine = machines.get();
+			decode(candidate, length, machine.candidateOps, machine.candidateArgs);
+			return isVerified(machine, length, new SplittableRandom(candidate ^ Arrays.hashCode(variables)));
+		}
+
+		private boolean isVerified(Machine machine, int length, SplittableRandom random) {
+			int[] output = new int[cells + 2];
+			for(int i = 0; i < VERIFY_TESTS; i++) {
+				int[] input = randomState(random);
+				machine.run(ops, variables, ops.length, input, output);
+				if(!machine.matches(length, input, output)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Runs a replacement on the same tests as a candidate
+		 * @param replacementOps the opcodes of the replacement
+		 * @param replacementArgs the args, with the cell of the fragment in
+		 * place of each address
+		 * @return true if it left the same state as the fragment on all of them
+		 */
+		boolean holds(int[] replacementOps, int[] replacementArgs) {
+			int length = replacementOps.length;
+			Machine machine = machines.get();
+			if(length > machine.candidateOps.length) return false;
+			System.arraycopy(replacementOps, 0, machine.candidateOps, 0, length);
+			System.arraycopy(replacementArgs, 0, machine.candidateArgs, 0, length);
+			for(int i = 0; i < RANDOM_TESTS; i++) {
+				if(!machine.matches(length, inputs[i], outputs[i])) return false;
+			}
+			return coversDomain(machine, length)
+					&& isVerified(machine, length, new SplittableRandom(Arrays.hashCode(replacementOps)));
+		}
+
+		@Override
+		public String toString() {
+			return new RewriteRule(ops, variables, new int[0], new int[0]).toString();
+		}
+	}
+
+	/**
+	 * A state with one cell for each variable, run through InstructionSet
+	 */
+	private static class Machine {
+		private MachineState state;
+		private int[] cells;
+		private int[] result;
+		private int[] candidateOps = new int[64];
+		private int[] candidateArgs = new int[64];
+
+		Machine(int cells) {
+			state = new MachineState(new Memory(Math.max(1, cells)));
+			this.cells = new int[cells];
+			result = new int[cells + 2];
+		}
+
+		void run(int[] ops, int[] args, int length, int[] input, int[] output) {
+			Memory memory = state.getMemory();
+			System.arraycopy(input, 1, cells, 0, cells.length);
+			memory.load(cells, -1);
+			state.accumulator = input[0];
+			for(int i = 0; i < length; i++) {
+				InstructionSet.execute(state, ops[i], args[i]);
+			}
+			output[0] = state.accumulator;
+			for(int i = 0; i < cells.length; i++) {
+				output[i + 1] = memory.getData(i);
+			}
+			output[cells.length + 1] = memory.getChangedIndex();
+		}
+
+		boolean matches(int length, int[] input, int[] expected) {
+			run(candidateOps, candidateArgs, length, input, result);
+			return Arrays.equals(result, expected);
+		}
+	}
+
+	/**
+	 * Prints the rules for the fragments of an executable, one on each line,
+	 * in the form PeepholeOptimizer reads
+	 * @param args the executable, and optionally the longest fragment to search
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("usage: Superoptimizer executable [maxLength]");
+			return;
+		}
+		int maxLength = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_LENGTH;
+		Superoptimizer superoptimizer = new Superoptimizer();
+		try {
+			long start = System.nanoTime();
+			List<RewriteRule> rules = superoptimizer.search(
+					Loader.loadImage(new File(args[0])).newCode(), maxLength);
+			for(RewriteRule rule : rules) {
+				System.out.println(rule);
+			}
+			System.err.println(rules.size() + " rules, " + (System.nanoTime() - start)/1000 + " microseconds");
+		} catch (IllegalArgumentException e) {
+			System.out.println(args[0] + " " + e.getMessage());
+		} finally {
+			superoptimizer.shutdown();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package pippin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SuperoptimizerTester {
+
+	@Test
+	public void testSearch() {
+		Superoptimizer superoptimizer = new Superoptimizer(2);
+		try {
+			assertEquals("STO a; LOD a => STO a",
+					superoptimizer.search(new int[] {0x4, 0x2}, new int[] {0xF9, 0xF9}).toString());
+			assertEquals("LODI 0; ADDI 3 => LODI 3",
+					superoptimizer.search(new int[] {0x1, 0xA}, new int[] {0, 3}).toString());
+			assertEquals("ADDI 1; SUBI 1 =>",
+					superoptimizer.search(new int[] {0xA, 0xD}, new int[] {1, 1}).toString());
+			assertEquals("NOT; NOT; NOT => NOT",
+					superoptimizer.search(new int[] {0x18, 0x18, 0x18}, new int[] {0, 0, 0}).toString());
+			// the store moves the changed index
+			assertNull(superoptimizer.search(new int[] {0x2, 0x4}, new int[] {5, 5}));
+			// the addresses may differ, so the first store stays
+			assertNull(superoptimizer.search(new int[] {0x4, 0x4}, new int[] {5, 6}));
+		} finally {
+			superoptimizer.shutdown();
+		}
+	}
+
+	@Test
+	// each of these is only wrong when the accumulator is the negation of an
+	// immediate, which the tests must include
+	public void testNoUnsoundRules() {
+		Superoptimizer superoptimizer = new Superoptimizer(2);
+		try {
+			assertNull(superoptimizer.search(new int[] {0xA, 0x18}, new int[] {5, 0}));
+			assertNull(superoptimizer.search(new int[] {0xD, 0x18}, new int[] {0xA, 0}));
+			assertNull(superoptimizer.search(new int[] {0xA, 0x16}, new int[] {4, 1}));
+		} finally {
+			superoptimizer.shutdown();
+		}
+		assertFalse(Superoptimizer.holds(RewriteRule.parse("ADDI 5; NOT => LODI 0")));
+		assertFalse(Superoptimizer.holds(RewriteRule.parse("ADDI 4; ANDI 1 => LODI 1")));
+		assertTrue(Superoptimizer.holds(RewriteRule.parse("ADDI 1; SUBI 1 =>")));
+		assertTrue(Superoptimizer.holds(RewriteRule.parse("AND b; MUL a; AND a => AND b; AND a")));
+	}
+
+	@Test
+	// a rule file is checked when it is read
+	public void testReadRules() throws IOException {
+		File file = File.createTempFile("pippin", ".rules");
+		try {
+			Files.write(file.toPath(), Arrays.asList("ADDI 1; SUBI 1 =>", "", "SUBI A; NOT => LODI 0"));
+			PeepholeOptimizer.readRules(file);
+			fail("an unsound rule was read");
+		} catch (IllegalArgumentException e) {
+			assertEquals("the rule does not hold on line 3", e.getMessage());
+		} finally {
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	@Test
+	public void testRuleText() {
+		for(String text : new String[] {"ADDI 1; SUBI 1 =>", "MULI -1; SUBI 1; ADDI 1 => MULI -1",
+				"AND a; MUL b; AND b => AND a; AND b", "LODI -80000000; NOT => LODI 0"}) {
+			assertEquals(text, RewriteRule.parse(text).toString());
+		}
+		for(String text : new String[] {"LOD a => LOD a", "LOD 5; NOT => LOD 5", "JMPI 3; NOT => NOT",
+				"LOD a; NOT => LOD b", "LOD a; NOT", "ADDI zz; NOT => NOT"}) {
+			try {
+				RewriteRule.parse(text);
+				throw new AssertionError(text + " was read as a rule");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	// a rule is applied with different variables at different addresses
+	public void testApplyRules() {
+		ProgramImage image = Assembler.assemble("LOD 0\nAND 1\nMUL 2\nAND 2\nSTO 3\n"
+				+ "LOD 0\nAND 1\nMUL 1\nAND 1\nSTO 4\nHALT\nENDCODE\n0 1\n1 2\n2 3\n").getImage();
+		ProgramImage optimized = PeepholeOptimizer.optimize(image,
+				Arrays.asList(RewriteRule.parse("AND a; MUL b; AND b => AND a; AND b")));
+		assertEquals(image.getProgramSize() - 1, optimized.getProgramSize());
+		MachineModel expected = new MachineModel();
+		expected.load(image);
+		expected.run(Long.MAX_VALUE);
+		MachineModel machine = new MachineModel();
+		machine.load(optimized);
+		machine.run(Long.MAX_VALUE);
+		assertArrayEquals(expected.getData(), machine.getData());
+		assertEquals(expected.getChangedIndex(), machine.getChangedIndex());
+	}
+
+	@Test
+	// a rule that leaves out a load is only applied where the load cannot
+	// fault, and any int may be the address a variable stands for
+	public void testRuleAddresses() {
+		RewriteRule rule = RewriteRule.parse("LOD a; LODI 1 => LODI 1");
+		assertTrue(Superoptimizer.holds(rule));
+		assertArrayEquals(new int[] {-1}, rule.match(new int[] {0x2, 0x1}, new int[] {-1, 1}, 0, 2));
+		assertNull(RewriteRule.parse("LOD a; LOD b; LODI 1 => LODI 1").match(
+				new int[] {0x2, 0x2, 0x1}, new int[] {-1, -1, 1}, 0, 3));
+
+		ProgramImage image = Assembler.assemble("LOD -2\nLODI 1\nHALT\nENDCODE\n").getImage();
+		ProgramImage optimized = PeepholeOptimizer.optimize(image, Arrays.asList(rule));
+		assertEquals(3, optimized.getProgramSize());
+		MachineModel machine = new MachineModel();
+		machine.load(optimized);
+		assertEquals(Fault.DATA_ACCESS, machine.run(Long.MAX_VALUE).getFault());
+		// the address is past the end of a small memory but inside the default one
+		Code code = Assembler.assemble("LOD 100\nLODI 1\nHALT\nENDCODE\n").getImage().newCode();
+		assertEquals(3, PeepholeOptimizer.optimize(code, Arrays.asList(rule), 0x100).getProgramSize());
+		assertEquals(2, PeepholeOptimizer.optimize(code, Arrays.asList(rule)).getProgramSize());
+		// every int is an address of a memory of 2^32 cells
+		code = Assembler.assemble("LOD -1\nLODI 1\nHALT\nENDCODE\n").getImage().newCode();
+		assertEquals(3, PeepholeOptimizer.optimize(code, Arrays.asList(rule)).getProgramSize());
+		assertEquals(2, PeepholeOptimizer.optimize(code, Arrays.asList(rule), 1L << 32).getProgramSize());
+	}
+}
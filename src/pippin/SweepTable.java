@@ -0,0 +1,97 @@
+package pippin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Collects the results of a DataSweep as they arrive and aggregates them: the
+ * number of runs with each outcome, the number of distinct final memories and the
+ * smallest, mean and largest step counts. BatchRunner never calls accept for two
+ * results at the same time, so the table needs no locking of its own.
+ */
+public class SweepTable implements Consumer<BatchResult> {
+	private List<BatchResult> rows = new ArrayList<>();
+	private Map<String, Integer> outcomes = new TreeMap<>();
+	private Map<Long, Integer> checksums = new TreeMap<>();
+	private long totalSteps;
+	private long minSteps = Long.MAX_VALUE;
+	private long maxSteps;
+	private long totalNanos;
+
+	@Override
+	public void accept(BatchResult result) {
+		rows.add(result);
+		outcomes.merge(outcome(result), 1, Integer::sum);
+		checksums.merge(result.getChecksum(), 1, Integer::sum);
+		long steps = result.getSteps();
+		totalSteps += steps;
+		minSteps = Math.min(minSteps, steps);
+		maxSteps = Math.max(maxSteps, steps);
+		totalNanos += result.getWallNanos();
+	}
+
+	static String outcome(BatchResult result) {
+		RunResult run = result.getRun();
+		if(run == null) return "LOAD_ERROR";
+		return run.getReason() == HaltReason.FAULT ? run.getFault().toString()
+				: run.getReason().toString();
+	}
+
+	/**
+	 * The results in the order they arrived
+	 * @return an unmodifiable view of the rows
+	 */
+	public List<BatchResult> getRows() {
+		return Collections.unmodifiableList(rows);
+	}
+
+	public int getCount() {
+		return rows.size();
+	}
+
+	/**
+	 * The number of runs that ended with an outcome
+	 * @param outcome HALT, STEP_LIMIT, LOAD_ERROR or the name of a Fault
+	 * @return the number of runs
+	 */
+	public int getCount(String outcome) {
+		return outcomes.getOrDefault(outcome, 0);
+	}
+
+	public long getTotalSteps() {
+		return totalSteps;
+	}
+
+	/**
+	 * The number of different final memories, which shows how many distinct
+	 * answers the program gave
+	 * @return the number of distinct checksums
+	 */
+	public int getDistinctChecksums() {
+		return checksums.size();
+	}
+
+	/**
+	 * Formats the aggregate as a table of outcomes followed by the step statistics
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("outcome\truns\n");
+		for(Map.Entry<String, Integer> entry : outcomes.entrySet()) {
+			builder.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+		}
+		builder.append("runs\t").append(rows.size()).append('\n');
+		builder.append("distinct memories\t").append(checksums.size()).append('\n');
+		if(!rows.isEmpty()) {
+			builder.append("steps min/mean/max\t").append(minSteps).append('/')
+				.append(totalSteps / rows.size()).append('/').append(maxSteps).append('\n');
+			builder.append("mean microseconds\t").append(totalNanos / rows.size() / 1000).append('\n');
+		}
+		return builder.toString();
+	}
+}